@@ -16,9 +16,14 @@
 
 package org.springframework.cloud.commons.util;
 
+import java.io.IOException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,9 +33,12 @@ import org.springframework.context.annotation.DeferredImportSelector;
 import org.springframework.core.GenericTypeResolver;
 import org.springframework.core.annotation.AnnotationAttributes;
 import org.springframework.core.env.Environment;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.core.io.support.SpringFactoriesLoader;
 import org.springframework.core.type.AnnotationMetadata;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 
 /**
@@ -43,6 +51,10 @@ import org.springframework.util.Assert;
 public abstract class SpringFactoryImportSelector<T>
 		implements DeferredImportSelector, BeanClassLoaderAware, EnvironmentAware {
 
+	private static final String INDEX_LOCATION = "META-INF/spring-cloud.index";
+
+	private static final String FACTORIES_LOCATION = "META-INF/spring.factories";
+
 	private ClassLoader beanClassLoader;
 
 	private Class<T> annotationClass;
@@ -69,8 +81,7 @@ public abstract class SpringFactoryImportSelector<T>
 				+ metadata.getClassName() + " annotated with @" + getSimpleName() + "?");
 
 		// Find all possible auto configuration classes, filtering duplicates
-		List<String> factories = new ArrayList<>(new LinkedHashSet<>(SpringFactoriesLoader
-				.loadFactoryNames(this.annotationClass, this.beanClassLoader)));
+		List<String> factories = new ArrayList<>(new LinkedHashSet<>(loadFactoryNames()));
 
 		if (factories.isEmpty() && !hasDefaultFactory()) {
 			throw new IllegalStateException("Annotation @" + getSimpleName()
@@ -87,6 +98,84 @@ public abstract class SpringFactoryImportSelector<T>
 		return factories.toArray(new String[factories.size()]);
 	}
 
+	/**
+	 * The class names from the index in <code>META-INF/spring-cloud.index</code> if there
+	 * is one (generated when the application was built, see
+	 * <code>BootstrapIndexProcessor</code> in spring-cloud-context) and it was built
+	 * with the same <code>spring.factories</code>, otherwise from
+	 * <code>spring.factories</code>.
+	 */
+	private List<String> loadFactoryNames() {
+		if (this.environment == null || this.environment
+				.getProperty("spring.cloud.index.enabled", Boolean.class, true)) {
+			try {
+				Properties index = loadIndex();
+				String value = index == null ? null
+						: index.getProperty(this.annotationClass.getName());
+				if (value != null) {
+					return Arrays.asList(StringUtils.tokenizeToStringArray(value, ","));
+				}
+			}
+			catch (IOException e) {
+				log.warn("Cannot read " + INDEX_LOCATION, e);
+			}
+		}
+		return SpringFactoriesLoader.loadFactoryNames(this.annotationClass,
+				this.beanClassLoader);
+	}
+
+	/**
+	 * The same checks as <code>BootstrapIndex</code> in spring-cloud-context: only one
+	 * index, listing the same sources of <code>spring.factories</code> as the class
+	 * path.
+	 */
+	private Properties loadIndex() throws IOException {
+		ClassLoader classLoader = this.beanClassLoader != null ? this.beanClassLoader
+				: SpringFactoryImportSelector.class.getClassLoader();
+		List<URL> indexes = Collections.list(classLoader.getResources(INDEX_LOCATION));
+		if (indexes.size() != 1) {
+			if (indexes.size() > 1) {
+				log.warn("Ignoring " + INDEX_LOCATION + ": there is more than one "
+						+ indexes);
+			}
+			return null;
+		}
+		Properties index = PropertiesLoaderUtils
+				.loadProperties(new UrlResource(indexes.get(0)));
+		String sources = index.getProperty(FACTORIES_LOCATION);
+		List<String> expected = new ArrayList<>();
+		if (sources != null) {
+			expected.addAll(
+					Arrays.asList(StringUtils.tokenizeToStringArray(sources, ",")));
+			Collections.sort(expected);
+		}
+		List<String> actual = new ArrayList<>();
+		for (URL url : Collections.list(classLoader.getResources(FACTORIES_LOCATION))) {
+			actual.add(getSourceName(url));
+		}
+		Collections.sort(actual);
+		if (sources == null || !actual.equals(expected)) {
+			log.warn("Ignoring " + indexes.get(0) + ": it was built with "
+					+ FACTORIES_LOCATION + " from " + sources + " but found " + actual);
+			return null;
+		}
+		return index;
+	}
+
+	/**
+	 * The name of the jar or directory that a <code>spring.factories</code> is in.
+	 */
+	static String getSourceName(URL url) {
+		String path = url.toString();
+		if (path.endsWith(FACTORIES_LOCATION)) {
+			path = path.substring(0, path.length() - FACTORIES_LOCATION.length());
+		}
+		while (path.endsWith("/") || path.endsWith("!")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
 	protected boolean hasDefaultFactory() {
 		return false;
 	}
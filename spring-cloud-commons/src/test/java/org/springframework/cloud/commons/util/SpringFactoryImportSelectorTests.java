@@ -16,8 +16,25 @@
 
 package org.springframework.cloud.commons.util;
 
+import java.io.File;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.core.type.StandardAnnotationMetadata;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StringUtils;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -25,6 +42,9 @@ import static org.junit.Assert.assertEquals;
  */
 public class SpringFactoryImportSelectorTests {
 
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
 	@Test
 	public void testFindAnnotation() {
 		MyAnnotationImportSelector selector = new MyAnnotationImportSelector();
@@ -32,9 +52,74 @@ public class SpringFactoryImportSelectorTests {
 				selector.getAnnotationClass());
 	}
 
+	@Test
+	public void importsFromIndex() throws Exception {
+		File folder = index(sources() + "\n" + MyAnnotation.class.getName()
+				+ "=foo.Bar,spam.Baz,foo.Bar");
+		MyAnnotationImportSelector selector = new MyAnnotationImportSelector();
+		selector.setBeanClassLoader(new URLClassLoader(
+				new URL[] { folder.toURI().toURL() }, getClass().getClassLoader()));
+		MockEnvironment environment = new MockEnvironment();
+		selector.setEnvironment(environment);
+		assertArrayEquals(new String[] { "foo.Bar", "spam.Baz" }, selector
+				.selectImports(new StandardAnnotationMetadata(Annotated.class)));
+		environment.setProperty("spring.cloud.index.enabled", "false");
+		assertArrayEquals(new String[0], selector
+				.selectImports(new StandardAnnotationMetadata(Annotated.class)));
+	}
+
+	@Test
+	public void indexIgnoredWhenFactoriesDifferent() throws Exception {
+		File folder = index("META-INF/spring.factories=foo-1.0.jar\n"
+				+ MyAnnotation.class.getName() + "=foo.Bar");
+		MyAnnotationImportSelector selector = new MyAnnotationImportSelector();
+		selector.setBeanClassLoader(new URLClassLoader(
+				new URL[] { folder.toURI().toURL() }, getClass().getClassLoader()));
+		assertArrayEquals(new String[0], selector
+				.selectImports(new StandardAnnotationMetadata(Annotated.class)));
+	}
+
+	@Test
+	public void indexIgnoredWhenMoreThanOne() throws Exception {
+		File application = index(sources() + "\n" + MyAnnotation.class.getName()
+				+ "=foo.Bar");
+		File library = index(sources() + "\n" + MyAnnotation.class.getName()
+				+ "=spam.Baz");
+		MyAnnotationImportSelector selector = new MyAnnotationImportSelector();
+		selector.setBeanClassLoader(new URLClassLoader(new URL[] {
+				application.toURI().toURL(), library.toURI().toURL() },
+				getClass().getClassLoader()));
+		assertArrayEquals(new String[0], selector
+				.selectImports(new StandardAnnotationMetadata(Annotated.class)));
+	}
+
+	private File index(String content) throws Exception {
+		File folder = this.temp.newFolder();
+		File file = new File(folder, "META-INF/spring-cloud.index");
+		file.getParentFile().mkdirs();
+		FileCopyUtils.copy(content.getBytes(), file);
+		return folder;
+	}
+
+	private String sources() throws Exception {
+		List<String> names = new ArrayList<>();
+		for (URL url : Collections.list(getClass().getClassLoader()
+				.getResources("META-INF/spring.factories"))) {
+			names.add(SpringFactoryImportSelector.getSourceName(url));
+		}
+		Collections.sort(names);
+		return "META-INF/spring.factories="
+				+ StringUtils.collectionToCommaDelimitedString(names);
+	}
+
+	@Retention(RetentionPolicy.RUNTIME)
 	public @interface MyAnnotation {
 	}
 
+	@MyAnnotation
+	public static class Annotated {
+	}
+
 	public static class MyAnnotationImportSelector extends
 			SpringFactoryImportSelector<MyAnnotation> {
 
@@ -43,5 +128,10 @@ public class SpringFactoryImportSelectorTests {
 			return true;
 		}
 
+		@Override
+		protected boolean hasDefaultFactory() {
+			return true;
+		}
+
 	}
 }
@@ -20,6 +20,7 @@ import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.SearchStrategy;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.boot.context.properties.ConfigurationBeanFactoryMetaData;
 import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessor;
 import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessorRegistrar;
@@ -64,6 +65,12 @@ public class ConfigurationPropertiesRebinderAutoConfiguration
 			ConfigurationPropertiesBeans beans) {
 		ConfigurationPropertiesRebinder rebinder = new ConfigurationPropertiesRebinder(
 				beans);
+		RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(
+				this.context.getEnvironment(), "spring.cloud.refresh.");
+		rebinder.setParallelism(
+				resolver.getProperty("rebind-parallelism", Integer.class, 1));
+		rebinder.setNameFilter(
+				resolver.getProperty("rebind-name-filter", Boolean.class, false));
 		return rebinder;
 	}
 
@@ -30,6 +30,7 @@ import org.springframework.cloud.context.restart.RestartEndpoint;
 import org.springframework.cloud.context.restart.RestartMvcEndpoint;
 import org.springframework.cloud.endpoint.GenericPostableMvcEndpoint;
 import org.springframework.cloud.endpoint.RefreshEndpoint;
+import org.springframework.cloud.endpoint.RefreshMvcEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.ConfigurableEnvironment;
@@ -69,7 +70,7 @@ public class LifecycleMvcEndpointAutoConfiguration {
 		@Bean
 		@ConditionalOnBean(RefreshEndpoint.class)
 		public MvcEndpoint refreshMvcEndpoint(RefreshEndpoint endpoint) {
-			return new GenericPostableMvcEndpoint(endpoint);
+			return new RefreshMvcEndpoint(endpoint);
 		}
 
 		@Bean
@@ -18,6 +18,7 @@
 package org.springframework.cloud.autoconfigure;
 
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
@@ -28,15 +29,19 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.web.WebMvcAutoConfiguration;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.cloud.context.environment.EnvironmentManager;
 import org.springframework.cloud.context.refresh.ContextRefresher;
 import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.cloud.endpoint.event.RefreshDispatcher;
 import org.springframework.cloud.endpoint.event.RefreshEventListener;
 import org.springframework.cloud.logging.LoggingRebinder;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.EnvironmentAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 /**
@@ -55,7 +60,14 @@ public class RefreshAutoConfiguration {
 	@Component
 	@ConditionalOnMissingBean(RefreshScope.class)
 	protected static class RefreshScopeConfiguration
-			implements BeanDefinitionRegistryPostProcessor {
+			implements BeanDefinitionRegistryPostProcessor, EnvironmentAware {
+
+		private Environment environment;
+
+		@Override
+		public void setEnvironment(Environment environment) {
+			this.environment = environment;
+		}
 
 		@Override
 		public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
@@ -65,10 +77,30 @@ public class RefreshAutoConfiguration {
 		@Override
 		public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry)
 				throws BeansException {
-			registry.registerBeanDefinition("refreshScope",
-					BeanDefinitionBuilder.genericBeanDefinition(RefreshScope.class)
-							.setRole(BeanDefinition.ROLE_INFRASTRUCTURE)
-							.getBeanDefinition());
+			BeanDefinitionBuilder builder = BeanDefinitionBuilder
+					.genericBeanDefinition(RefreshScope.class)
+					.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+			if (this.environment != null) {
+				// Too early for @ConfigurationProperties, so read the flags directly
+				RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(
+						this.environment, "spring.cloud.refresh.");
+				builder.addPropertyValue("stripedLocks", resolver
+						.getProperty("striped-locks", Boolean.class, false));
+				builder.addPropertyValue("blueGreen",
+						resolver.getProperty("blue-green", Boolean.class, false));
+				builder.addPropertyValue("deferredDestruction", resolver
+						.getProperty("deferred-destruction", Boolean.class, false));
+				builder.addPropertyValue("parallelInitialization", resolver
+						.getProperty("parallel-initialization", Boolean.class, false));
+				builder.addPropertyValue("keyTracking",
+						resolver.getProperty("key-tracking", Boolean.class, false));
+				Integer threads = resolver.getProperty("initialization-threads",
+						Integer.class);
+				if (threads != null) {
+					builder.addPropertyValue("initializationThreads", threads);
+				}
+			}
+			registry.registerBeanDefinition("refreshScope", builder.getBeanDefinition());
 		}
 	}
 
@@ -82,13 +114,33 @@ public class RefreshAutoConfiguration {
 	@ConditionalOnMissingBean
 	public ContextRefresher contextRefresher(ConfigurableApplicationContext context,
 			RefreshScope scope) {
-		return new ContextRefresher(context, scope);
+		ContextRefresher refresher = new ContextRefresher(context, scope);
+		refresher.setLightweight(new RelaxedPropertyResolver(context.getEnvironment(),
+				"spring.cloud.refresh.").getProperty("lightweight-reload", Boolean.class,
+						false));
+		return refresher;
 	}
 
 	@Bean
 	public RefreshEventListener refreshEventListener(
-			ContextRefresher contextRefresher) {
+			ContextRefresher contextRefresher,
+			ObjectProvider<RefreshDispatcher> refreshDispatcher) {
+		RefreshDispatcher dispatcher = refreshDispatcher.getIfAvailable();
+		if (dispatcher != null) {
+			return new RefreshEventListener(dispatcher);
+		}
 		return new RefreshEventListener(contextRefresher);
 	}
 
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty("spring.cloud.refresh.async-events")
+	public RefreshDispatcher refreshDispatcher(ContextRefresher contextRefresher,
+			Environment environment) {
+		RefreshDispatcher dispatcher = new RefreshDispatcher(contextRefresher);
+		dispatcher.setDebounce(new RelaxedPropertyResolver(environment,
+				"spring.cloud.refresh.").getProperty("event-debounce", Long.class, 0L));
+		return dispatcher;
+	}
+
 }
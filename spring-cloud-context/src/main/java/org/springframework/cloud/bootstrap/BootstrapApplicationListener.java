@@ -35,6 +35,7 @@ import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
 import org.springframework.boot.logging.LoggingApplicationListener;
 import org.springframework.cloud.bootstrap.encrypt.EnvironmentDecryptApplicationInitializer;
+import org.springframework.cloud.bootstrap.index.BootstrapIndex;
 import org.springframework.context.ApplicationContextInitializer;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -151,8 +152,19 @@ public class BootstrapApplicationListener
 		}
 		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 		// Use names and ensure unique to protect against duplicates
-		List<String> names = SpringFactoriesLoader
-				.loadFactoryNames(BootstrapConfiguration.class, classLoader);
+		List<String> names = null;
+		if (environment.getProperty("spring.cloud.index.enabled", Boolean.class, true)) {
+			BootstrapIndex index = BootstrapIndex.load(classLoader);
+			if (index != null) {
+				names = index.getNames(BootstrapConfiguration.class);
+			}
+		}
+		// Indexed classes have already been checked and sorted
+		int indexed = names != null ? names.size() : 0;
+		if (names == null) {
+			names = SpringFactoriesLoader.loadFactoryNames(BootstrapConfiguration.class,
+					classLoader);
+		}
 		for (String name : StringUtils.commaDelimitedListToStringArray(
 				environment.getProperty("spring.cloud.bootstrap.sources", ""))) {
 			names.add(name);
@@ -172,17 +184,21 @@ public class BootstrapApplicationListener
 					.setListeners(filterListeners(builder.application().getListeners()));
 		}
 		List<Class<?>> sources = new ArrayList<>();
-		for (String name : names) {
-			Class<?> cls = ClassUtils.resolveClassName(name, null);
-			try {
-				cls.getDeclaredAnnotations();
-			}
-			catch (Exception e) {
-				continue;
+		for (int i = 0; i < names.size(); i++) {
+			Class<?> cls = ClassUtils.resolveClassName(names.get(i), null);
+			if (i >= indexed) {
+				try {
+					cls.getDeclaredAnnotations();
+				}
+				catch (Exception e) {
+					continue;
+				}
 			}
 			sources.add(cls);
 		}
-		AnnotationAwareOrderComparator.sort(sources);
+		if (indexed < names.size()) {
+			AnnotationAwareOrderComparator.sort(sources);
+		}
 		builder.sources(sources.toArray(new Class[sources.size()]));
 		final ConfigurableApplicationContext context = builder.run();
 		// Make the bootstrap context a parent of the app context
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.bootstrap.config;
+
+/**
+ * Marker for a {@link PropertySourceLocator} whose property sources are not needed while
+ * the application context is being created. It is not called on startup, but after the
+ * application is ready (on a background thread), and its property source is then added
+ * to the others (in the same order as if it had not been deferred) and an
+ * <code>EnvironmentChangeEvent</code> is published (through the
+ * {@link org.springframework.cloud.context.refresh.ContextRefresher ContextRefresher}, if
+ * there is one, so <code>@RefreshScope</code> beans are refreshed too). A failure is logged and does not
+ * affect the application. A refresh calls all the locators as normal.
+ */
+public interface DeferredPropertySourceLocator extends PropertySourceLocator {
+
+}
@@ -19,10 +19,19 @@ package org.springframework.cloud.bootstrap.config;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +40,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.bind.PropertySourcesPropertyValues;
 import org.springframework.boot.bind.RelaxedDataBinder;
 import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.boot.context.config.ConfigFileApplicationListener;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.logging.LogFile;
@@ -38,8 +48,10 @@ import org.springframework.boot.logging.LoggingInitializationContext;
 import org.springframework.boot.logging.LoggingSystem;
 import org.springframework.cloud.bootstrap.BootstrapApplicationListener;
 import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.context.refresh.ContextRefresher;
 import org.springframework.cloud.logging.LoggingRebinder;
 import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
@@ -49,6 +61,8 @@ import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.MutablePropertySources;
 import org.springframework.core.env.PropertySource;
 import org.springframework.core.env.StandardEnvironment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ResourceUtils;
 import org.springframework.util.StringUtils;
 
@@ -72,11 +86,25 @@ public class PropertySourceBootstrapConfiguration implements
 	@Autowired(required = false)
 	private List<PropertySourceLocator> propertySourceLocators = new ArrayList<>();
 
+	private volatile Map<String, Long> timings = Collections.emptyMap();
+
 	@Override
 	public int getOrder() {
 		return this.order;
 	}
 
+	/**
+	 * The time (in milliseconds) that each locator took in the last call to
+	 * {@link #locate(ConfigurableEnvironment)}, keyed by the locator class name (with a
+	 * "#n" suffix if there is more than one of the same class), in the same order as the
+	 * locators. A locator that timed out and was skipped is not included.
+	 *
+	 * @return the timings from the last call
+	 */
+	public Map<String, Long> getTimings() {
+		return this.timings;
+	}
+
 	public void setPropertySourceLocators(
 			Collection<PropertySourceLocator> propertySourceLocators) {
 		this.propertySourceLocators = new ArrayList<>(propertySourceLocators);
@@ -84,33 +112,350 @@ public class PropertySourceBootstrapConfiguration implements
 
 	@Override
 	public void initialize(ConfigurableApplicationContext applicationContext) {
-		CompositePropertySource composite = new CompositePropertySource(
-				BOOTSTRAP_PROPERTY_SOURCE_NAME);
+		ConfigurableEnvironment environment = applicationContext.getEnvironment();
+		String logConfig = environment.resolvePlaceholders("${logging.config:}");
+		LogFile logFile = LogFile.get(environment);
+		if (locate(applicationContext) != null) {
+			reinitializeLoggingSystem(environment, logConfig, logFile);
+			setLogLevels(applicationContext, environment);
+			handleIncludedProfiles(environment);
+		}
+	}
+
+	/**
+	 * Ask the {@link PropertySourceLocator locators} for their property sources and
+	 * insert them into the environment (replacing the ones from a previous call, if
+	 * any). Unlike {@link #initialize(ConfigurableApplicationContext)} this has no side
+	 * effects outside the environment (apart from replacing the snapshot, if
+	 * <code>spring.cloud.bootstrap.snapshot.location</code> is set), so it can be used to
+	 * reload the property sources into a copy of the environment. If
+	 * <code>spring.cloud.bootstrap.locators.parallel=true</code> the locators are called
+	 * concurrently (optionally with a timeout), but the property sources are still added
+	 * in the order of the locators.
+	 *
+	 * @param environment the environment to add property sources to
+	 * @return the property source that was added, or null if the locators found nothing
+	 */
+	public CompositePropertySource locate(ConfigurableEnvironment environment) {
 		AnnotationAwareOrderComparator.sort(this.propertySourceLocators);
-		boolean empty = true;
+		Map<String, Long> timings = new LinkedHashMap<>();
+		List<PropertySource<?>> sources = present(locateSources(environment,
+				new ArrayList<>(this.propertySourceLocators), timings));
+		setTimings(timings);
+		PropertySourceSnapshot snapshot = PropertySourceSnapshot.get(environment);
+		if (snapshot != null) {
+			snapshot.write(sources);
+		}
+		return insert(environment, sources);
+	}
+
+	/**
+	 * Locate the property sources for a new application context. A
+	 * {@link DeferredPropertySourceLocator} is called later, when the application is
+	 * ready. If there is a snapshot
+	 * (<code>spring.cloud.bootstrap.snapshot.location</code>) in "eager" mode it is used
+	 * if it exists, otherwise only if the locators fail, and in both cases the locators
+	 * are called again in the background and the context is updated when they succeed.
+	 * The snapshot is replaced every time the locators succeed, including in a refresh
+	 * (which never uses the snapshot or defers any locators), as it is by
+	 * {@link #locate(ConfigurableEnvironment)}.
+	 */
+	private CompositePropertySource locate(
+			ConfigurableApplicationContext applicationContext) {
 		ConfigurableEnvironment environment = applicationContext.getEnvironment();
-		for (PropertySourceLocator locator : this.propertySourceLocators) {
-			PropertySource<?> source = null;
-			source = locator.locate(environment);
-			if (source == null) {
-				continue;
+		PropertySourceSnapshot snapshot = PropertySourceSnapshot.get(environment);
+		boolean refresh = environment.getPropertySources()
+				.contains(ContextRefresher.REFRESH_ARGS_PROPERTY_SOURCE);
+		AnnotationAwareOrderComparator.sort(this.propertySourceLocators);
+		List<PropertySourceLocator> locators = new ArrayList<>(
+				this.propertySourceLocators);
+		if (snapshot != null && snapshot.isEager() && !refresh) {
+			List<PropertySource<?>> sources = snapshot.read();
+			if (sources != null) {
+				logger.info("Using bootstrap snapshot: " + snapshot.getFile());
+				reconcile(applicationContext, snapshot, locators, null);
+				return insert(environment, sources);
 			}
+		}
+		List<PropertySourceLocator> critical = new ArrayList<>();
+		for (PropertySourceLocator locator : locators) {
+			if (refresh || !(locator instanceof DeferredPropertySourceLocator)) {
+				critical.add(locator);
+			}
+		}
+		List<PropertySource<?>> located;
+		try {
+			Map<String, Long> timings = new LinkedHashMap<>();
+			located = locateSources(environment, critical, timings);
+			setTimings(timings);
+		}
+		catch (RuntimeException e) {
+			List<PropertySource<?>> sources = snapshot == null || refresh ? null
+					: snapshot.read();
+			if (sources == null) {
+				throw e;
+			}
+			logger.warn("Property source locators failed, using bootstrap snapshot: "
+					+ snapshot.getFile(), e);
+			reconcile(applicationContext, snapshot, locators, null);
+			return insert(environment, sources);
+		}
+		if (critical.size() < locators.size()) {
+			reconcile(applicationContext, snapshot, locators, located);
+		}
+		else if (snapshot != null) {
+			snapshot.write(present(located));
+		}
+		return insert(environment, present(located));
+	}
+
+	/**
+	 * Call the locators again in the background and update the context (and the
+	 * snapshot, if there is one) with the result. If some of the property sources have
+	 * already been located, only the deferred locators are called, once the application
+	 * is ready.
+	 *
+	 * @param applicationContext the application context to update
+	 * @param snapshot the snapshot (may be null)
+	 * @param locators all the locators in order
+	 * @param located the property sources from the locators that are not deferred, or
+	 * null to call all the locators now
+	 */
+	private void reconcile(final ConfigurableApplicationContext applicationContext,
+			final PropertySourceSnapshot snapshot,
+			final List<PropertySourceLocator> locators,
+			final List<PropertySource<?>> located) {
+		final ConfigurableEnvironment environment = applicationContext.getEnvironment();
+		final PropertySourceReconciler reconciler = new PropertySourceReconciler(
+				applicationContext);
+		applicationContext.addApplicationListener(reconciler);
+		CustomizableThreadFactory factory = new CustomizableThreadFactory(
+				located == null ? "bootstrap-snapshot-" : "bootstrap-deferred-");
+		factory.setDaemon(true);
+		final Thread thread = factory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				List<PropertySource<?>> sources;
+				try {
+					sources = located == null ? locateAll(environment, locators)
+							: locateDeferred(environment, locators, located);
+				}
+				catch (RuntimeException e) {
+					logger.warn("Property source locators failed in the background"
+							+ (snapshot == null ? ""
+									: ", keeping bootstrap snapshot: "
+											+ snapshot.getFile()),
+							e);
+					return;
+				}
+				if (snapshot != null) {
+					snapshot.write(sources);
+				}
+				reconciler.update(sources);
+			}
+		});
+		if (located == null) {
+			thread.start();
+			return;
+		}
+		applicationContext.addApplicationListener(
+				new ApplicationListener<ApplicationReadyEvent>() {
+					@Override
+					public void onApplicationEvent(ApplicationReadyEvent event) {
+						if (event.getApplicationContext() == applicationContext
+								&& thread.getState() == Thread.State.NEW) {
+							thread.start();
+						}
+					}
+				});
+	}
+
+	private List<PropertySource<?>> locateAll(ConfigurableEnvironment environment,
+			List<PropertySourceLocator> locators) {
+		Map<String, Long> timings = new LinkedHashMap<>();
+		List<PropertySource<?>> sources = locateSources(environment, locators, timings);
+		setTimings(timings);
+		return present(sources);
+	}
+
+	private List<PropertySource<?>> locateDeferred(ConfigurableEnvironment environment,
+			List<PropertySourceLocator> locators, List<PropertySource<?>> located) {
+		List<PropertySourceLocator> deferred = new ArrayList<>();
+		for (PropertySourceLocator locator : locators) {
+			if (locator instanceof DeferredPropertySourceLocator) {
+				deferred.add(locator);
+			}
+		}
+		Map<String, Long> timings = new LinkedHashMap<>(this.timings);
+		Iterator<PropertySource<?>> late = locateSources(environment, deferred, timings)
+				.iterator();
+		setTimings(timings);
+		// Same order as if they had all been located at once
+		Iterator<PropertySource<?>> early = located.iterator();
+		List<PropertySource<?>> sources = new ArrayList<>();
+		for (PropertySourceLocator locator : locators) {
+			sources.add(locator instanceof DeferredPropertySourceLocator ? late.next()
+					: early.next());
+		}
+		return present(sources);
+	}
+
+	/**
+	 * Call the locators provided.
+	 *
+	 * @return the property source from each locator (null if it had none)
+	 */
+	private List<PropertySource<?>> locateSources(ConfigurableEnvironment environment,
+			List<PropertySourceLocator> locators, Map<String, Long> timings) {
+		RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(environment,
+				"spring.cloud.bootstrap.locators.");
+		if (locators.size() > 1
+				&& resolver.getProperty("parallel", Boolean.class, false)) {
+			return locateParallel(environment, locators, resolver, timings);
+		}
+		List<PropertySource<?>> sources = new ArrayList<>();
+		for (PropertySourceLocator locator : locators) {
+			long start = System.currentTimeMillis();
+			sources.add(locator.locate(environment));
+			timings.put(getName(locator, timings), System.currentTimeMillis() - start);
+		}
+		return sources;
+	}
+
+	private void setTimings(Map<String, Long> timings) {
+		this.timings = Collections.unmodifiableMap(timings);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Property source locator timings (ms): " + timings);
+		}
+	}
+
+	private List<PropertySource<?>> present(List<PropertySource<?>> sources) {
+		List<PropertySource<?>> result = new ArrayList<>();
+		for (PropertySource<?> source : sources) {
+			if (source != null) {
+				result.add(source);
+			}
+		}
+		return result;
+	}
+
+	private CompositePropertySource insert(ConfigurableEnvironment environment,
+			List<PropertySource<?>> sources) {
+		if (sources.isEmpty()) {
+			return null;
+		}
+		CompositePropertySource composite = new CompositePropertySource(
+				BOOTSTRAP_PROPERTY_SOURCE_NAME);
+		for (PropertySource<?> source : sources) {
 			logger.info("Located property source: " + source);
 			composite.addPropertySource(source);
-			empty = false;
 		}
-		if (!empty) {
-			MutablePropertySources propertySources = environment.getPropertySources();
-			String logConfig = environment.resolvePlaceholders("${logging.config:}");
-			LogFile logFile = LogFile.get(environment);
-			if (propertySources.contains(BOOTSTRAP_PROPERTY_SOURCE_NAME)) {
-				propertySources.remove(BOOTSTRAP_PROPERTY_SOURCE_NAME);
+		MutablePropertySources propertySources = environment.getPropertySources();
+		if (propertySources.contains(BOOTSTRAP_PROPERTY_SOURCE_NAME)) {
+			propertySources.remove(BOOTSTRAP_PROPERTY_SOURCE_NAME);
+		}
+		insertPropertySources(propertySources, composite);
+		return composite;
+	}
+
+	/**
+	 * Call all the locators at once (on a pool that only lives as long as this method)
+	 * and collect the results in the same order as the locators, so the precedence of
+	 * the sources is the same as if they were called one at a time. With a timeout each
+	 * locator has its own thread, so none of them waits for a thread while its time runs
+	 * out, and all of them get the full timeout from the moment they are called.
+	 */
+	private List<PropertySource<?>> locateParallel(
+			final ConfigurableEnvironment environment,
+			List<PropertySourceLocator> locators, RelaxedPropertyResolver resolver,
+			Map<String, Long> timings) {
+		long timeout = resolver.getProperty("timeout", Long.class, 0L);
+		boolean skip = "skip"
+				.equalsIgnoreCase(resolver.getProperty("timeout-policy", "fail"));
+		int threads = timeout > 0 ? locators.size()
+				: Math.min(locators.size(), Math.max(1,
+						resolver.getProperty("max-threads", Integer.class, 4)));
+		CustomizableThreadFactory factory = new CustomizableThreadFactory("locator-");
+		factory.setDaemon(true);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, factory);
+		try {
+			List<Future<PropertySource<?>>> futures = new ArrayList<>();
+			// Only read after the corresponding future completes
+			final long[] elapsed = new long[locators.size()];
+			for (int i = 0; i < elapsed.length; i++) {
+				final PropertySourceLocator locator = locators.get(i);
+				final int index = i;
+				futures.add(executor.submit(new Callable<PropertySource<?>>() {
+					@Override
+					public PropertySource<?> call() throws Exception {
+						long start = System.currentTimeMillis();
+						try {
+							return locator.locate(environment);
+						}
+						finally {
+							elapsed[index] = System.currentTimeMillis() - start;
+						}
+					}
+				}));
 			}
-			insertPropertySources(propertySources, composite);
-			reinitializeLoggingSystem(environment, logConfig, logFile);
-			setLogLevels(applicationContext, environment);
-			handleIncludedProfiles(environment);
+			long deadline = System.currentTimeMillis() + timeout;
+			List<PropertySource<?>> result = new ArrayList<>();
+			for (int i = 0; i < futures.size(); i++) {
+				Future<PropertySource<?>> future = futures.get(i);
+				String name = getName(locators.get(i), timings);
+				try {
+					if (timeout > 0) {
+						result.add(future.get(
+								Math.max(0, deadline - System.currentTimeMillis()),
+								TimeUnit.MILLISECONDS));
+					}
+					else {
+						result.add(future.get());
+					}
+					timings.put(name, elapsed[i]);
+				}
+				catch (TimeoutException e) {
+					future.cancel(true);
+					if (!skip) {
+						throw new IllegalStateException("Property source locator " + name
+								+ " did not complete within " + timeout + "ms");
+					}
+					logger.warn("Skipping property source locator " + name
+							+ " (did not complete within " + timeout + "ms)");
+					result.add(null);
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IllegalStateException(
+							"Property source locator " + name + " failed", cause);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(
+							"Interrupted waiting for property source locator " + name,
+							e);
+				}
+			}
+			return result;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private String getName(PropertySourceLocator locator, Map<String, Long> timings) {
+		String name = ClassUtils.getUserClass(locator).getName();
+		String result = name;
+		for (int i = 1; timings.containsKey(result); i++) {
+			result = name + "#" + i;
 		}
+		return result;
 	}
 
 	private void reinitializeLoggingSystem(ConfigurableEnvironment environment,
@@ -150,7 +495,7 @@ public class PropertySourceBootstrapConfiguration implements
 				Collections.<String>emptySet()));
 	}
 
-	private void insertPropertySources(MutablePropertySources propertySources,
+	static void insertPropertySources(MutablePropertySources propertySources,
 			CompositePropertySource composite) {
 		MutablePropertySources incoming = new MutablePropertySources();
 		incoming.addFirst(composite);
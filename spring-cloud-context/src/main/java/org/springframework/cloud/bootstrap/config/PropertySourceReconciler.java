@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.bootstrap.encrypt.EnvironmentDecryptApplicationInitializer;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Replaces the bootstrap property sources in a running application context with new ones
+ * (e.g. when the ones it started with came from a snapshot), and publishes an
+ * {@link EnvironmentChangeEvent} with the keys that changed. If the context has a
+ * {@link ContextRefresher} the update goes through that, so it is not interleaved with a
+ * refresh and the refresh scope is refreshed as well. Updates that arrive before the
+ * context is refreshed are held back until it is, so that there is something to rebind.
+ */
+class PropertySourceReconciler implements ApplicationListener<ContextRefreshedEvent> {
+
+	private static final Log logger = LogFactory.getLog(PropertySourceReconciler.class);
+
+	private static final String CIPHER = "{cipher}";
+
+	private final ConfigurableApplicationContext context;
+
+	private boolean ready;
+
+	private List<PropertySource<?>> pending;
+
+	PropertySourceReconciler(ConfigurableApplicationContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		if (event.getApplicationContext() != this.context) {
+			return;
+		}
+		List<PropertySource<?>> pending;
+		synchronized (this) {
+			if (this.ready) {
+				return;
+			}
+			this.ready = true;
+			pending = this.pending;
+			this.pending = null;
+		}
+		// Not holding the lock here: applying the update takes the refresher's lock,
+		// which is held for a whole refresh, and update() should not wait for that
+		if (pending != null) {
+			apply(pending);
+		}
+	}
+
+	/**
+	 * Replace the bootstrap property sources with the ones provided, as soon as the
+	 * context is ready.
+	 *
+	 * @param sources the new property sources (in order of precedence)
+	 */
+	void update(List<PropertySource<?>> sources) {
+		synchronized (this) {
+			if (!this.ready) {
+				this.pending = sources;
+				return;
+			}
+		}
+		apply(sources);
+	}
+
+	private void apply(List<PropertySource<?>> sources) {
+		if (!this.context.isActive()) {
+			return;
+		}
+		ContextRefresher refresher = getRefresher();
+		if (refresher == null) {
+			Set<String> keys = replace(sources);
+			if (!keys.isEmpty()) {
+				this.context.publishEvent(new EnvironmentChangeEvent(this.context, keys));
+			}
+			return;
+		}
+		synchronized (refresher) {
+			refresher.publish(replace(sources));
+		}
+	}
+
+	private ContextRefresher getRefresher() {
+		Collection<ContextRefresher> refreshers = this.context
+				.getBeansOfType(ContextRefresher.class, false, false).values();
+		return refreshers.size() == 1 ? refreshers.iterator().next() : null;
+	}
+
+	/**
+	 * Swap in the new property sources if any of the values changed.
+	 *
+	 * @return the keys that changed
+	 */
+	private Set<String> replace(List<PropertySource<?>> sources) {
+		String name = PropertySourceBootstrapConfiguration.BOOTSTRAP_PROPERTY_SOURCE_NAME;
+		CompositePropertySource composite = new CompositePropertySource(name);
+		for (PropertySource<?> source : sources) {
+			if (source != null) {
+				composite.addPropertySource(source);
+			}
+		}
+		MutablePropertySources propertySources = this.context.getEnvironment()
+				.getPropertySources();
+		PropertySource<?> current = propertySources.get(name);
+		Set<String> keys = new LinkedHashSet<>();
+		boolean encrypted = diff(current, composite, keys);
+		if (keys.isEmpty()) {
+			logger.debug("Bootstrap property sources unchanged");
+			return keys;
+		}
+		if (current != null) {
+			propertySources.replace(name, composite);
+		}
+		else {
+			PropertySourceBootstrapConfiguration.insertPropertySources(propertySources,
+					composite);
+		}
+		if (encrypted) {
+			decrypt();
+		}
+		logger.info("Bootstrap property sources changed: " + keys);
+		return keys;
+	}
+
+	/**
+	 * Collect the keys whose values differ (compared as strings, since a snapshot only
+	 * has strings).
+	 *
+	 * @return true if any of the values that changed were encrypted
+	 */
+	private boolean diff(PropertySource<?> current, CompositePropertySource composite,
+			Set<String> keys) {
+		Set<String> names = new LinkedHashSet<>(
+				Arrays.asList(composite.getPropertyNames()));
+		if (current instanceof EnumerablePropertySource) {
+			names.addAll(Arrays.asList(
+					((EnumerablePropertySource<?>) current).getPropertyNames()));
+		}
+		boolean encrypted = false;
+		for (String key : names) {
+			String before = current == null ? null : toString(current.getProperty(key));
+			String after = toString(composite.getProperty(key));
+			if (!ObjectUtils.nullSafeEquals(before, after)) {
+				keys.add(key);
+				encrypted |= isEncrypted(before) || isEncrypted(after);
+			}
+		}
+		return encrypted;
+	}
+
+	private void decrypt() {
+		// The decrypted values are in a separate property source, which is now stale
+		ApplicationContext parent = this.context.getParent();
+		if (parent == null) {
+			return;
+		}
+		for (EnvironmentDecryptApplicationInitializer initializer : parent
+				.getBeansOfType(EnvironmentDecryptApplicationInitializer.class)
+				.values()) {
+			initializer.initialize(this.context);
+		}
+	}
+
+	private boolean isEncrypted(String value) {
+		return value != null && value.startsWith(CIPHER);
+	}
+
+	private String toString(Object value) {
+		return value == null ? null : value.toString();
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.util.StringUtils;
+
+/**
+ * A local copy of the property sources found by the {@link PropertySourceLocator
+ * locators}, so that an application can start without waiting for (or in spite of) a
+ * remote server. The structure of the sources (including nested composites) is kept, and
+ * the values are stored as they were located (as strings), so anything that was
+ * encrypted in the remote source (a value starting with <code>{cipher}</code>) is still
+ * encrypted in the file. Only enumerable sources can be stored.
+ */
+class PropertySourceSnapshot {
+
+	private static final Log logger = LogFactory.getLog(PropertySourceSnapshot.class);
+
+	private static final String HEADER = "spring-cloud-bootstrap-snapshot";
+
+	private static final int VERSION = 1;
+
+	private static final byte COMPOSITE = 1;
+
+	private static final byte MAP = 2;
+
+	private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+
+	private final boolean eager;
+
+	PropertySourceSnapshot(File file, boolean eager) {
+		this.file = file;
+		this.eager = eager;
+	}
+
+	/**
+	 * Create a snapshot from the <code>spring.cloud.bootstrap.snapshot.*</code>
+	 * properties in the environment provided.
+	 *
+	 * @param environment the environment
+	 * @return a snapshot, or null if there is no location for one
+	 */
+	static PropertySourceSnapshot get(ConfigurableEnvironment environment) {
+		RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(environment,
+				"spring.cloud.bootstrap.snapshot.");
+		String location = resolver.getProperty("location");
+		if (!StringUtils.hasText(location)) {
+			return null;
+		}
+		return new PropertySourceSnapshot(new File(location.trim()),
+				"eager".equalsIgnoreCase(resolver.getProperty("mode", "fallback")));
+	}
+
+	/**
+	 * @return true if the snapshot should be used in preference to the locators (which
+	 * are then called in the background), false if it is only a fallback for when they
+	 * fail
+	 */
+	boolean isEager() {
+		return this.eager;
+	}
+
+	File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the property sources in the snapshot, or null if there is no snapshot or
+	 * it cannot be read
+	 */
+	List<PropertySource<?>> read() {
+		if (!this.file.canRead()) {
+			return null;
+		}
+		try (DataInputStream input = new DataInputStream(new GZIPInputStream(
+				new BufferedInputStream(new FileInputStream(this.file))))) {
+			if (!HEADER.equals(readString(input)) || input.readInt() != VERSION) {
+				logger.warn("Ignoring bootstrap snapshot in unknown format: "
+						+ this.file);
+				return null;
+			}
+			int count = input.readInt();
+			List<PropertySource<?>> result = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				result.add(read(input));
+			}
+			return result;
+		}
+		catch (IOException e) {
+			logger.warn("Cannot read bootstrap snapshot: " + this.file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Replace the snapshot with the property sources provided.
+	 *
+	 * @param sources the property sources to store
+	 * @return true if the snapshot was written
+	 */
+	boolean write(List<PropertySource<?>> sources) {
+		for (PropertySource<?> source : sources) {
+			if (!isEnumerable(source)) {
+				logger.debug("Not writing bootstrap snapshot (" + source.getName()
+						+ " is not enumerable)");
+				return false;
+			}
+		}
+		File directory = this.file.getAbsoluteFile().getParentFile();
+		File temp = null;
+		try {
+			directory.mkdirs();
+			temp = File.createTempFile(this.file.getName(), ".tmp", directory);
+			restrict(temp);
+			try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp))))) {
+				writeString(output, HEADER);
+				output.writeInt(VERSION);
+				output.writeInt(sources.size());
+				for (PropertySource<?> source : sources) {
+					write(output, source);
+				}
+			}
+			try {
+				Files.move(temp.toPath(), this.file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), this.file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		}
+		catch (IOException e) {
+			logger.warn("Cannot write bootstrap snapshot: " + this.file, e);
+			if (temp != null) {
+				temp.delete();
+			}
+			return false;
+		}
+	}
+
+	private boolean isEnumerable(PropertySource<?> source) {
+		if (source instanceof CompositePropertySource) {
+			for (PropertySource<?> nested : ((CompositePropertySource) source)
+					.getPropertySources()) {
+				if (!isEnumerable(nested)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return source instanceof EnumerablePropertySource;
+	}
+
+	private void restrict(File file) {
+		// The values might be sensitive even if they are not encrypted
+		try {
+			Files.setPosixFilePermissions(file.toPath(),
+					PosixFilePermissions.fromString("rw-------"));
+		}
+		catch (UnsupportedOperationException | IOException e) {
+			// Not a POSIX file system
+		}
+	}
+
+	private void write(DataOutputStream output, PropertySource<?> source)
+			throws IOException {
+		if (source instanceof CompositePropertySource) {
+			output.writeByte(COMPOSITE);
+			writeString(output, source.getName());
+			List<PropertySource<?>> nested = new ArrayList<>(
+					((CompositePropertySource) source).getPropertySources());
+			output.writeInt(nested.size());
+			for (PropertySource<?> item : nested) {
+				write(output, item);
+			}
+			return;
+		}
+		EnumerablePropertySource<?> enumerable = (EnumerablePropertySource<?>) source;
+		Map<String, String> values = new LinkedHashMap<>();
+		for (String name : enumerable.getPropertyNames()) {
+			Object value = enumerable.getProperty(name);
+			if (value != null) {
+				values.put(name, value.toString());
+			}
+		}
+		output.writeByte(MAP);
+		writeString(output, source.getName());
+		output.writeInt(values.size());
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+	}
+
+	private PropertySource<?> read(DataInputStream input) throws IOException {
+		byte type = input.readByte();
+		String name = readString(input);
+		int count = input.readInt();
+		if (type == COMPOSITE) {
+			CompositePropertySource composite = new CompositePropertySource(name);
+			for (int i = 0; i < count; i++) {
+				composite.addPropertySource(read(input));
+			}
+			return composite;
+		}
+		if (type != MAP) {
+			throw new IOException("Unknown property source type: " + type);
+		}
+		Map<String, Object> values = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			values.put(readString(input), readString(input));
+		}
+		return new MapPropertySource(name, values);
+	}
+
+	private void writeString(DataOutputStream output, String value) throws IOException {
+		// Not writeUTF() because that is limited to 64K
+		byte[] bytes = value.getBytes(UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException("Corrupt bootstrap snapshot");
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.index;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.StringUtils;
+
+/**
+ * A precomputed list of the classes registered in <code>META-INF/spring.factories</code>
+ * under some of the keys that Spring Cloud looks up on startup (e.g.
+ * <code>BootstrapConfiguration</code>). The classes have already been checked and sorted
+ * by the {@link BootstrapIndexProcessor} when the application was built, so if there is
+ * an index, one resource is read instead of all the <code>spring.factories</code> on the
+ * classpath, and the classes do not need to be inspected. The index describes the
+ * classpath that the application was compiled with, so it also records where the
+ * <code>spring.factories</code> came from (the names of the jars and directories). If
+ * they are not the same at runtime, or there is more than one index on the classpath
+ * (e.g. one from a library), the index is ignored and <code>spring.factories</code> are
+ * read as usual. It can also be switched off at runtime with
+ * <code>spring.cloud.index.enabled=false</code>.
+ */
+public final class BootstrapIndex {
+
+	/**
+	 * The location of the index.
+	 */
+	public static final String INDEX_LOCATION = "META-INF/spring-cloud.index";
+
+	/**
+	 * The key in the index for the sources of <code>spring.factories</code>.
+	 */
+	static final String FACTORIES_LOCATION = "META-INF/spring.factories";
+
+	private static final Log logger = LogFactory.getLog(BootstrapIndex.class);
+
+	private static final BootstrapIndex NONE = new BootstrapIndex(new Properties());
+
+	private static final Map<ClassLoader, BootstrapIndex> cache = new ConcurrentReferenceHashMap<>();
+
+	private final Properties properties;
+
+	private BootstrapIndex(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Load the index from the class loader provided (only once per class loader).
+	 *
+	 * @param classLoader the class loader (null for the default)
+	 * @return the index, or null if there is none
+	 */
+	public static BootstrapIndex load(ClassLoader classLoader) {
+		ClassLoader key = classLoader != null ? classLoader
+				: BootstrapIndex.class.getClassLoader();
+		BootstrapIndex index = cache.get(key);
+		if (index == null) {
+			index = NONE;
+			try {
+				Properties properties = loadProperties(key);
+				if (properties != null) {
+					index = new BootstrapIndex(properties);
+				}
+			}
+			catch (IOException e) {
+				logger.warn("Cannot read " + INDEX_LOCATION
+						+ " (falling back to spring.factories)", e);
+			}
+			cache.put(key, index);
+		}
+		return index == NONE ? null : index;
+	}
+
+	private static Properties loadProperties(ClassLoader classLoader)
+			throws IOException {
+		List<URL> indexes = Collections.list(classLoader.getResources(INDEX_LOCATION));
+		if (indexes.isEmpty()) {
+			return null;
+		}
+		if (indexes.size() > 1) {
+			logger.warn("Ignoring " + INDEX_LOCATION
+					+ " (falling back to spring.factories): there is more than one "
+					+ indexes);
+			return null;
+		}
+		Properties properties = PropertiesLoaderUtils
+				.loadProperties(new UrlResource(indexes.get(0)));
+		String sources = properties.getProperty(FACTORIES_LOCATION);
+		if (sources == null) {
+			logger.warn("Ignoring " + indexes.get(0)
+					+ " (falling back to spring.factories): it does not list the "
+					+ FACTORIES_LOCATION + " that it was built with");
+			return null;
+		}
+		List<String> expected = getSourceNames(sources);
+		List<String> actual = getSourceNames(
+				classLoader.getResources(FACTORIES_LOCATION));
+		if (!actual.equals(expected)) {
+			logger.warn("Ignoring " + indexes.get(0)
+					+ " (falling back to spring.factories): it was built with "
+					+ FACTORIES_LOCATION + " from " + expected + " but found " + actual);
+			return null;
+		}
+		return properties;
+	}
+
+	private static List<String> getSourceNames(String value) {
+		List<String> names = new ArrayList<>();
+		for (String name : StringUtils.commaDelimitedListToStringArray(value)) {
+			if (StringUtils.hasText(name)) {
+				names.add(name.trim());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * The sorted names of the jars and directories that some resources are in.
+	 *
+	 * @param urls the resources
+	 * @return the names
+	 */
+	static List<String> getSourceNames(Enumeration<URL> urls) {
+		List<String> names = new ArrayList<>();
+		while (urls.hasMoreElements()) {
+			names.add(getSourceName(urls.nextElement()));
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * The name of the jar or directory that a <code>spring.factories</code> is in (e.g.
+	 * <code>foo-1.0.jar</code> or <code>classes</code>), which is the same for the
+	 * compiler's class path and a packaged application.
+	 *
+	 * @param url the location of the resource
+	 * @return the name
+	 */
+	static String getSourceName(URL url) {
+		String path = url.toString();
+		if (path.endsWith(FACTORIES_LOCATION)) {
+			path = path.substring(0, path.length() - FACTORIES_LOCATION.length());
+		}
+		while (path.endsWith("/") || path.endsWith("!")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * The class names for a factory type, in order, or null if the index has no entry
+	 * for it (in which case the caller should look in <code>spring.factories</code>).
+	 *
+	 * @param type the factory type (e.g. <code>BootstrapConfiguration</code>)
+	 * @return the class names, or null
+	 */
+	public List<String> getNames(Class<?> type) {
+		String value = this.properties.getProperty(type.getName());
+		if (value == null) {
+			return null;
+		}
+		List<String> names = new ArrayList<>();
+		for (String name : StringUtils.commaDelimitedListToStringArray(value)) {
+			if (StringUtils.hasText(name)) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+
+}
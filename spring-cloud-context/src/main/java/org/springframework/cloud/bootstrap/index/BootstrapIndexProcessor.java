@@ -0,0 +1,301 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes a {@link BootstrapIndex} for an application. It reads
+ * all the <code>META-INF/spring.factories</code> that it can see (the ones on the class
+ * path of the compiler, as well as the one in the module being compiled) and lists the
+ * classes for each of the keys in the index, leaving out the ones that cannot be loaded.
+ * The bootstrap configuration classes are sorted by their <code>@Order</code> (or
+ * <code>@Priority</code>), in the same way that they would be when the application
+ * starts. The keys can be changed with the <code>spring.cloud.index.keys</code> option
+ * (comma separated). The jars and directories that the <code>spring.factories</code>
+ * came from are listed as well, so that the index can be ignored if the class path is
+ * different at runtime.
+ * <p>
+ * This processor is not registered automatically, because the index is only valid for
+ * the class path it was built with, so it should be added to the compiler configuration
+ * of an application explicitly (and not of a library).
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(BootstrapIndexProcessor.KEYS_OPTION)
+public class BootstrapIndexProcessor extends AbstractProcessor {
+
+	static final String KEYS_OPTION = "spring.cloud.index.keys";
+
+	static final String BOOTSTRAP_CONFIGURATION = "org.springframework.cloud.bootstrap.BootstrapConfiguration";
+
+	private static final String[] DEFAULT_KEYS = { BOOTSTRAP_CONFIGURATION,
+			"org.springframework.cloud.client.discovery.EnableDiscoveryClient",
+			"org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker" };
+
+	private static final String FACTORIES_LOCATION = BootstrapIndex.FACTORIES_LOCATION;
+
+	private static final String ORDER = "org.springframework.core.annotation.Order";
+
+	private static final String PRIORITY = "javax.annotation.Priority";
+
+	private static final int LOWEST_PRECEDENCE = Integer.MAX_VALUE;
+
+	private boolean written;
+
+	private final List<String> sources = new ArrayList<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver() && !this.written) {
+			this.written = true;
+			try {
+				writeIndex(index(loadFactories()));
+			}
+			catch (IOException e) {
+				this.processingEnv.getMessager().printMessage(Kind.ERROR,
+						"Cannot write " + BootstrapIndex.INDEX_LOCATION + ": " + e);
+			}
+		}
+		return false;
+	}
+
+	private Map<String, Set<String>> loadFactories() throws IOException {
+		Map<String, Set<String>> factories = new LinkedHashMap<>();
+		for (String key : getKeys()) {
+			factories.put(key, new LinkedHashSet<String>());
+		}
+		// The module being compiled first (as it would be at runtime)
+		try {
+			FileObject resource = this.processingEnv.getFiler()
+					.getResource(StandardLocation.CLASS_OUTPUT, "", FACTORIES_LOCATION);
+			try (InputStream stream = resource.openInputStream()) {
+				loadFactories(stream, factories);
+			}
+			this.sources.add(BootstrapIndex.getSourceName(resource.toUri().toURL()));
+		}
+		catch (IOException e) {
+			// No spring.factories in this module
+		}
+		ClassLoader classLoader = getClass().getClassLoader();
+		Enumeration<URL> urls = classLoader == null
+				? ClassLoader.getSystemResources(FACTORIES_LOCATION)
+				: classLoader.getResources(FACTORIES_LOCATION);
+		while (urls.hasMoreElements()) {
+			URL url = urls.nextElement();
+			try (InputStream stream = url.openStream()) {
+				loadFactories(stream, factories);
+			}
+			this.sources.add(BootstrapIndex.getSourceName(url));
+		}
+		return factories;
+	}
+
+	private void loadFactories(InputStream stream, Map<String, Set<String>> factories)
+			throws IOException {
+		Properties properties = new Properties();
+		properties.load(stream);
+		for (Map.Entry<String, Set<String>> entry : factories.entrySet()) {
+			String value = properties.getProperty(entry.getKey());
+			if (value == null) {
+				continue;
+			}
+			for (String name : value.split(",")) {
+				if (!name.trim().isEmpty()) {
+					entry.getValue().add(name.trim());
+				}
+			}
+		}
+	}
+
+	private Map<String, List<String>> index(Map<String, Set<String>> factories) {
+		Map<String, List<String>> index = new LinkedHashMap<>();
+		for (Map.Entry<String, Set<String>> entry : factories.entrySet()) {
+			final Map<String, Integer> orders = new LinkedHashMap<>();
+			for (String name : entry.getValue()) {
+				TypeElement type = this.processingEnv.getElementUtils()
+						.getTypeElement(name.replace('$', '.'));
+				if (type == null || !isResolvable(type)) {
+					this.processingEnv.getMessager().printMessage(Kind.NOTE,
+							"Not indexing " + name + " (cannot be loaded)");
+					continue;
+				}
+				orders.put(name, getOrder(type));
+			}
+			List<String> names = new ArrayList<>(orders.keySet());
+			if (BOOTSTRAP_CONFIGURATION.equals(entry.getKey())) {
+				// Stable, so the same as sorting the classes at runtime
+				Collections.sort(names, new Comparator<String>() {
+					@Override
+					public int compare(String one, String two) {
+						return Integer.compare(orders.get(one), orders.get(two));
+					}
+				});
+			}
+			index.put(entry.getKey(), names);
+		}
+		return index;
+	}
+
+	private void writeIndex(Map<String, List<String>> index) throws IOException {
+		FileObject resource = this.processingEnv.getFiler().createResource(
+				StandardLocation.CLASS_OUTPUT, "", BootstrapIndex.INDEX_LOCATION);
+		try (Writer writer = resource.openWriter()) {
+			writer.write("# Generated by " + getClass().getSimpleName() + "\n");
+			Collections.sort(this.sources);
+			writer.write(FACTORIES_LOCATION + "="
+					+ join(this.sources) + "\n");
+			for (Map.Entry<String, List<String>> entry : index.entrySet()) {
+				writer.write(entry.getKey() + "=" + join(entry.getValue()) + "\n");
+			}
+		}
+	}
+
+	private String join(List<String> names) {
+		StringBuilder value = new StringBuilder();
+		for (String name : names) {
+			value.append(value.length() > 0 ? "," : "").append(name);
+		}
+		return value.toString();
+	}
+
+	private List<String> getKeys() {
+		String keys = this.processingEnv.getOptions().get(KEYS_OPTION);
+		if (keys == null) {
+			return Arrays.asList(DEFAULT_KEYS);
+		}
+		List<String> result = new ArrayList<>();
+		for (String key : keys.split(",")) {
+			if (!key.trim().isEmpty()) {
+				result.add(key.trim());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The equivalent of the runtime check that the annotations on a class can be loaded.
+	 */
+	private boolean isResolvable(TypeElement type) {
+		for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+			if (annotation.getAnnotationType().getKind() == TypeKind.ERROR) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int getOrder(TypeElement type) {
+		Integer order = findValue(type, ORDER, new HashSet<Element>());
+		if (order == null) {
+			order = findValue(type, PRIORITY, new HashSet<Element>());
+		}
+		return order != null ? order : LOWEST_PRECEDENCE;
+	}
+
+	/**
+	 * Find the value of an annotation on a type, its meta-annotations, interfaces or
+	 * superclasses (the same places that are searched at runtime).
+	 */
+	private Integer findValue(TypeElement type, String annotationType,
+			Set<Element> visited) {
+		if (!visited.add(type)) {
+			return null;
+		}
+		for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+			if (annotationType.equals(((TypeElement) annotation.getAnnotationType()
+					.asElement()).getQualifiedName().toString())) {
+				return getValue(annotation);
+			}
+		}
+		for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+			TypeElement element = (TypeElement) annotation.getAnnotationType()
+					.asElement();
+			if (!element.getQualifiedName().toString().startsWith("java.lang")) {
+				Integer value = findValue(element, annotationType, visited);
+				if (value != null) {
+					return value;
+				}
+			}
+		}
+		for (TypeMirror candidate : type.getInterfaces()) {
+			Integer value = findValue(asElement(candidate), annotationType, visited);
+			if (value != null) {
+				return value;
+			}
+		}
+		if (type.getSuperclass().getKind() == TypeKind.DECLARED) {
+			return findValue(asElement(type.getSuperclass()), annotationType, visited);
+		}
+		return null;
+	}
+
+	private TypeElement asElement(TypeMirror type) {
+		return (TypeElement) ((DeclaredType) type).asElement();
+	}
+
+	private Integer getValue(AnnotationMirror annotation) {
+		Map<? extends ExecutableElement, ? extends AnnotationValue> values = this.processingEnv
+				.getElementUtils().getElementValuesWithDefaults(annotation);
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values
+				.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals("value")) {
+				Object value = entry.getValue().getValue();
+				return value instanceof Integer ? (Integer) value : null;
+			}
+		}
+		return null;
+	}
+
+}
@@ -15,16 +15,21 @@
  */
 package org.springframework.cloud.context.environment;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
@@ -32,7 +37,10 @@ import org.springframework.stereotype.Component;
 /**
  * Entry point for making local (but volatile) changes to the {@link Environment} of a
  * running application. Allows properties to be added and values changed, simply by adding
- * them to a high priority property source in the existing Environment.
+ * them to a high priority property source in the existing Environment. Changes can be
+ * made in bulk with {@link #setProperties(Map)} and {@link #removeProperties(Collection)},
+ * in which case they are all visible at once and there is a single
+ * {@link EnvironmentChangeEvent} for the whole batch.
  * 
  * @author Dave Syer
  * 
@@ -42,7 +50,8 @@ import org.springframework.stereotype.Component;
 public class EnvironmentManager implements ApplicationEventPublisherAware {
 
 	private static final String MANAGER_PROPERTY_SOURCE = "manager";
-	private Map<String, Object> map = new LinkedHashMap<String, Object>();
+	private Map<String, Object> map = Collections
+			.synchronizedMap(new LinkedHashMap<String, Object>());
 
 	private ConfigurableEnvironment environment;
 	private ApplicationEventPublisher publisher;
@@ -50,11 +59,20 @@ public class EnvironmentManager implements ApplicationEventPublisherAware {
 	public EnvironmentManager(ConfigurableEnvironment environment) {
 		this.environment = environment;
 		MutablePropertySources sources = environment.getPropertySources();
-		if (sources.contains(MANAGER_PROPERTY_SOURCE)) {
-			@SuppressWarnings("unchecked")
-			Map<String, Object> map = (Map<String, Object>) sources
-					.get(MANAGER_PROPERTY_SOURCE).getSource();
-			this.map = map;
+		PropertySource<?> source = sources.get(MANAGER_PROPERTY_SOURCE);
+		if (source instanceof ManagerPropertySource) {
+			// From another manager: share its map (and its lock)
+			this.map = ((ManagerPropertySource) source).getSource();
+		}
+		else if (source != null) {
+			// Swap in a thread safe copy (it might be updated while it is being read)
+			if (source instanceof EnumerablePropertySource) {
+				for (String name : ((EnumerablePropertySource<?>) source)
+						.getPropertyNames()) {
+					this.map.put(name, source.getProperty(name));
+				}
+			}
+			sources.replace(MANAGER_PROPERTY_SOURCE, new ManagerPropertySource(this.map));
 		}
 	}
 
@@ -65,9 +83,12 @@ public class EnvironmentManager implements ApplicationEventPublisherAware {
 
 	@ManagedOperation
 	public Map<String, Object> reset() {
-		Map<String, Object> result = new LinkedHashMap<String, Object>(map);
-		if (!map.isEmpty()) {
+		Map<String, Object> result;
+		synchronized (map) {
+			result = new LinkedHashMap<String, Object>(map);
 			map.clear();
+		}
+		if (!result.isEmpty()) {
 			publish(new EnvironmentChangeEvent(publisher, result.keySet()));
 		}
 		return result;
@@ -75,24 +96,65 @@ public class EnvironmentManager implements ApplicationEventPublisherAware {
 
 	@ManagedOperation
 	public void setProperty(String name, String value) {
+		setProperties(Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * Set some properties in one go, publishing a single {@link EnvironmentChangeEvent}
+	 * for the ones whose values actually changed.
+	 *
+	 * @param properties the property values keyed by name
+	 * @return the names of the properties that changed
+	 */
+	@ManagedOperation
+	public Set<String> setProperties(Map<String, String> properties) {
 
 		if (!environment.getPropertySources().contains(MANAGER_PROPERTY_SOURCE)) {
 			synchronized (map) {
 				if (!environment.getPropertySources().contains(MANAGER_PROPERTY_SOURCE)) {
-					MapPropertySource source = new MapPropertySource(
-							MANAGER_PROPERTY_SOURCE, map);
-					environment.getPropertySources().addFirst(source);
+					environment.getPropertySources()
+							.addFirst(new ManagerPropertySource(map));
 				}
 			}
 		}
 
-		if (!value.equals(environment.getProperty(name))) {
-			map.put(name, value);
-			publish(new EnvironmentChangeEvent(publisher, Collections.singleton(name)));
+		Map<String, Object> changes = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			if (!entry.getValue().equals(environment.getProperty(entry.getKey()))) {
+				changes.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if (!changes.isEmpty()) {
+			map.putAll(changes);
+			publish(new EnvironmentChangeEvent(publisher, changes.keySet()));
 		}
+		return changes.keySet();
 
 	}
 
+	/**
+	 * Remove some properties that were set locally in one go, publishing a single
+	 * {@link EnvironmentChangeEvent} for the ones that were present.
+	 *
+	 * @param names the names of the properties to remove
+	 * @return the properties that were removed, with their old values
+	 */
+	@ManagedOperation
+	public Map<String, Object> removeProperties(Collection<String> names) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		synchronized (map) {
+			for (String name : new LinkedHashSet<String>(names)) {
+				if (map.containsKey(name)) {
+					result.put(name, map.remove(name));
+				}
+			}
+		}
+		if (!result.isEmpty()) {
+			publish(new EnvironmentChangeEvent(publisher, result.keySet()));
+		}
+		return result;
+	}
+
 	@ManagedOperation
 	public Object getProperty(String name) {
 		return environment.getProperty(name);
@@ -104,4 +166,17 @@ public class EnvironmentManager implements ApplicationEventPublisherAware {
 		}
 	}
 
+	/**
+	 * The property source that holds the properties set by a manager, so that another
+	 * manager for the same Environment can tell it apart from one that someone else
+	 * added with the same name.
+	 */
+	private static class ManagerPropertySource extends MapPropertySource {
+
+		ManagerPropertySource(Map<String, Object> map) {
+			super(MANAGER_PROPERTY_SOURCE, map);
+		}
+
+	}
+
 }
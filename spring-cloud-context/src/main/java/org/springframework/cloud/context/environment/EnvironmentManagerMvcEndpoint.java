@@ -15,6 +15,7 @@
  */
 package org.springframework.cloud.context.environment;
 
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.boot.actuate.endpoint.Endpoint;
@@ -46,12 +47,16 @@ public class EnvironmentManagerMvcEndpoint implements MvcEndpoint {
 	@RequestMapping(value = "", method = RequestMethod.POST)
 	@ResponseBody
 	public Object value(@RequestParam Map<String, String> params) {
-		for (String name : params.keySet()) {
-			environment.setProperty(name, params.get(name));
-		}
+		environment.setProperties(params);
 		return params;
 	}
 
+	@RequestMapping(value = "remove", method = RequestMethod.POST)
+	@ResponseBody
+	public Map<String, Object> remove(@RequestParam("name") List<String> names) {
+		return environment.removeProperties(names);
+	}
+
 	@RequestMapping(value = "reset", method = RequestMethod.POST)
 	@ResponseBody
 	public Map<String, Object> reset() {
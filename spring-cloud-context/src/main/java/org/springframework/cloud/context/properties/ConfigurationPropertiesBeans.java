@@ -15,10 +15,12 @@
  */
 package org.springframework.cloud.context.properties;
 
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -27,23 +29,42 @@ import org.springframework.boot.context.properties.ConfigurationBeanFactoryMetaD
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ConcurrentReferenceHashMap;
 
 /**
  * Collects references to <code>@ConfigurationProperties</code> beans in the context and
- * its parent.
+ * its parent. The beans in the parent are not copied: the queries delegate to the
+ * instance in the parent context. Runs before the <code>@ConfigurationProperties</code>
+ * binder, so that it can tell the {@link ConfigurationPropertiesRebinder} which bean is
+ * about to be bound.
  *
  * @author Dave Syer
  *
  */
 @Component
 public class ConfigurationPropertiesBeans implements BeanPostProcessor,
-ApplicationContextAware {
+ApplicationContextAware, PriorityOrdered {
+
+	/**
+	 * Class level annotations, shared by all the contexts (e.g. bootstrap, main and
+	 * child contexts) since most of the bean classes are the same.
+	 */
+	private static final Map<Class<?>, Object> annotations = new ConcurrentReferenceHashMap<>();
+
+	private static final Object NONE = new Object();
 
 	private ConfigurationBeanFactoryMetaData metaData;
 
-	private Map<String, Object> beans = new HashMap<String, Object>();
+	// Concurrent because beans can be re-initialized in parallel by the rebinder
+	private Map<String, Object> beans = new ConcurrentHashMap<String, Object>();
+
+	private Map<String, String> prefixes = new ConcurrentHashMap<String, String>();
+
+	private PrefixTrie trie = new PrefixTrie();
 
 	private ConfigurableListableBeanFactory beanFactory;
 
@@ -53,6 +74,8 @@ ApplicationContextAware {
 
 	private ConfigurationPropertiesBeans parent;
 
+	private volatile RebindPropertySources propertySources;
+
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext)
 			throws BeansException {
@@ -67,8 +90,9 @@ ApplicationContextAware {
 			String[] names = listable
 					.getBeanNamesForType(ConfigurationPropertiesBeans.class);
 			if (names.length == 1) {
+				// Delegate to the parent instead of copying its beans (there may be a lot
+				// of child contexts)
 				this.parent = (ConfigurationPropertiesBeans) listable.getBean(names[0]);
-				this.beans.putAll(this.parent.beans);
 			}
 		}
 	}
@@ -80,25 +104,55 @@ ApplicationContextAware {
 		this.metaData = beans;
 	}
 
+	void setPropertySources(RebindPropertySources propertySources) {
+		this.propertySources = propertySources;
+	}
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
 	@Override
 	public Object postProcessBeforeInitialization(Object bean, String beanName)
 			throws BeansException {
+		RebindPropertySources propertySources = this.propertySources;
+		if (propertySources != null) {
+			propertySources.initializing(bean);
+		}
+		if (this.beans.containsKey(beanName)) {
+			// Being rebound: already indexed
+			this.beans.put(beanName, bean);
+			return bean;
+		}
 		if (isRefreshScoped(beanName)) {
 			return bean;
 		}
-		ConfigurationProperties annotation = AnnotationUtils.findAnnotation(
-				bean.getClass(), ConfigurationProperties.class);
+		ConfigurationProperties annotation = findAnnotation(bean.getClass());
+		if (annotation == null && this.metaData != null) {
+			annotation = this.metaData.findFactoryAnnotation(beanName,
+					ConfigurationProperties.class);
+		}
 		if (annotation != null) {
 			this.beans.put(beanName, bean);
+			index(beanName, annotation.prefix());
 		}
-		else if (this.metaData != null) {
-			annotation = this.metaData.findFactoryAnnotation(beanName,
+		return bean;
+	}
+
+	private static ConfigurationProperties findAnnotation(Class<?> type) {
+		Object annotation = annotations.get(type);
+		if (annotation == null) {
+			annotation = AnnotationUtils.findAnnotation(type,
 					ConfigurationProperties.class);
-			if (annotation != null) {
-				this.beans.put(beanName, bean);
-			}
+			annotations.put(type, annotation == null ? NONE : annotation);
 		}
-		return bean;
+		return annotation == NONE ? null : (ConfigurationProperties) annotation;
+	}
+
+	private void index(String beanName, String prefix) {
+		this.prefixes.put(beanName, prefix);
+		this.trie.add(prefix, beanName);
 	}
 
 	private boolean isRefreshScoped(String beanName) {
@@ -126,7 +180,54 @@ ApplicationContextAware {
 	}
 
 	public Set<String> getBeanNames() {
-		return new HashSet<String>(this.beans.keySet());
+		Set<String> names = new HashSet<String>(this.beans.keySet());
+		if (this.parent != null) {
+			names.addAll(this.parent.getBeanNames());
+		}
+		return names;
+	}
+
+	boolean containsBean(String name) {
+		return this.beans.containsKey(name)
+				|| (this.parent != null && this.parent.containsBean(name));
+	}
+
+	String getPrefix(String name) {
+		String prefix = this.prefixes.get(name);
+		if (prefix == null && this.parent != null) {
+			prefix = this.parent.getPrefix(name);
+		}
+		return prefix;
+	}
+
+	/**
+	 * The names of the beans that might be affected by changes to the keys provided,
+	 * i.e. the ones whose prefix matches one of the keys. If a key cannot be matched to a
+	 * prefix reliably (e.g. it looks like an environment variable, with underscores
+	 * instead of dots) then all the bean names are returned.
+	 *
+	 * @param keys the property keys that changed
+	 * @return the names of the beans to rebind
+	 */
+	public Set<String> getBeanNames(Collection<String> keys) {
+		Set<String> result = new LinkedHashSet<String>();
+		if (!collect(keys, result)) {
+			return getBeanNames();
+		}
+		return result;
+	}
+
+	private boolean collect(Collection<String> keys, Set<String> result) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (String key : keys) {
+			if (key.indexOf('.') < 0 && key.indexOf('_') >= 0) {
+				return false;
+			}
+			this.trie.collect(key, names);
+		}
+		names.retainAll(this.beans.keySet());
+		result.addAll(names);
+		return this.parent == null || this.parent.collect(keys, result);
 	}
 
 }
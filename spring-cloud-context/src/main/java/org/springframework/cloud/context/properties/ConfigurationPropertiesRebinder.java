@@ -15,23 +15,37 @@
  */
 package org.springframework.cloud.context.properties;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationListener;
+import org.springframework.core.Ordered;
 import org.springframework.core.env.Environment;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.cloud.util.ProxyUtils;
 
@@ -42,6 +56,16 @@ import org.springframework.cloud.util.ProxyUtils;
  * re-initialized the changes are available immediately to any component that is using the
  * <code>@ConfigurationProperties</code> bean.
  *
+ * <p>
+ * By default the beans are rebound one at a time. With a
+ * {@link #setParallelism(int) parallelism} greater than 1 the beans that do not depend
+ * on (and are not depended on by) any other bean being rebound are spread over a bounded
+ * pool of threads, and the rest are rebound sequentially afterwards.
+ *
+ * <p>
+ * Listeners for the same event that are not ordered run after this one, so they see the
+ * rebound values.
+ *
  * @see RefreshScope for a deeper and optionally more focused refresh of bean components
  *
  * @author Dave Syer
@@ -50,7 +74,8 @@ import org.springframework.cloud.util.ProxyUtils;
 @Component
 @ManagedResource
 public class ConfigurationPropertiesRebinder
-		implements ApplicationContextAware, ApplicationListener<EnvironmentChangeEvent> {
+		implements ApplicationContextAware, ApplicationListener<EnvironmentChangeEvent>,
+		DisposableBean, Ordered {
 
 	private ConfigurationPropertiesBeans beans;
 
@@ -58,10 +83,73 @@ public class ConfigurationPropertiesRebinder
 
 	private Map<String, Exception> errors = new ConcurrentHashMap<>();
 
+	private volatile long lastRebindTime;
+
+	private volatile EventRebindTime lastEventRebindTime;
+
+	private int parallelism = 1;
+
+	private ExecutorService executor;
+
+	private boolean nameFilter;
+
+	private RebindPropertySources propertySources;
+
+	private boolean propertySourcesInitialized;
+
+	private int order = Ordered.LOWEST_PRECEDENCE - 100;
+
 	public ConfigurationPropertiesRebinder(ConfigurationPropertiesBeans beans) {
 		this.beans = beans;
 	}
 
+	/**
+	 * The maximum number of threads to use when rebinding. Defaults to 1 (rebind
+	 * sequentially in the calling thread).
+	 *
+	 * @param parallelism the parallelism to set
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		if (this.executor != null) {
+			this.executor.shutdown();
+			this.executor = null;
+		}
+	}
+
+	@ManagedAttribute
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * Only show each bean the property names that might match its prefix when
+	 * rebinding (see {@link RebindPropertySources}). Defaults to false. Has to be set
+	 * before the first rebind.
+	 *
+	 * @param nameFilter the flag to set
+	 */
+	public synchronized void setNameFilter(boolean nameFilter) {
+		this.nameFilter = nameFilter;
+	}
+
+	@Override
+	public int getOrder() {
+		return this.order;
+	}
+
+	public void setOrder(int order) {
+		this.order = order;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext)
 			throws BeansException {
@@ -79,15 +167,168 @@ public class ConfigurationPropertiesRebinder
 
 	@ManagedOperation
 	public void rebind() {
+		long start = System.nanoTime();
 		this.errors.clear();
-		for (String name : this.beans.getBeanNames()) {
-			rebind(name);
+		try {
+			rebindAll(this.beans.getBeanNames());
+		}
+		finally {
+			this.lastRebindTime = TimeUnit.NANOSECONDS
+					.toMillis(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return the time in milliseconds that the last rebind took
+	 */
+	@ManagedAttribute
+	public long getLastRebindTime() {
+		return this.lastRebindTime;
+	}
+
+	/**
+	 * The time that the rebind for an event took, as long as it is the latest event that
+	 * this rebinder has seen.
+	 *
+	 * @param event an event that has been published
+	 * @return the time in milliseconds that rebinding for the event took (0 if nothing
+	 * was rebound, or the event is not the latest one)
+	 */
+	public long getRebindTime(EnvironmentChangeEvent event) {
+		EventRebindTime last = this.lastEventRebindTime;
+		return last != null && last.event == event ? last.time : 0;
+	}
+
+	/**
+	 * Rebind the beans that might be affected by changes to some keys.
+	 *
+	 * @param keys the keys that changed
+	 * @return the names of the beans that were rebound
+	 * @see ConfigurationPropertiesBeans#getBeanNames(Collection)
+	 */
+	public Set<String> rebind(Collection<String> keys) {
+		long start = System.nanoTime();
+		Set<String> names = this.beans.getBeanNames(keys);
+		try {
+			for (String name : names) {
+				this.errors.remove(name);
+			}
+			rebindAll(names);
+		}
+		finally {
+			this.lastRebindTime = TimeUnit.NANOSECONDS
+					.toMillis(System.nanoTime() - start);
+		}
+		return names;
+	}
+
+	private void rebindAll(Set<String> names) {
+		RebindPropertySources sources = getPropertySources();
+		final RebindPropertySources.Plan plan = sources == null ? null : sources.plan();
+		ExecutorService executor = getExecutor();
+		if (executor == null || names.size() < 2) {
+			for (String name : names) {
+				rebind(name, plan);
+			}
+			return;
+		}
+		Set<String> dependent = findDependent(names);
+		List<Future<Boolean>> futures = new ArrayList<>();
+		for (final String name : names) {
+			if (!dependent.contains(name)) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return rebind(name, plan);
+					}
+				}));
+			}
+		}
+		RuntimeException failure = null;
+		for (Future<Boolean> future : futures) {
+			try {
+				future.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while rebinding", e);
+			}
+			catch (ExecutionException e) {
+				// The error has already been recorded by rebind(String)
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException
+							? (RuntimeException) e.getCause()
+							: new IllegalStateException(e.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		for (String name : names) {
+			if (dependent.contains(name)) {
+				rebind(name, plan);
+			}
+		}
+	}
+
+	/**
+	 * The beans that have a dependency relationship (either way round) with another one
+	 * in the same batch. Rebinding those in parallel could expose one of them to the
+	 * other while it is half initialized.
+	 */
+	private Set<String> findDependent(Set<String> names) {
+		Set<String> result = new LinkedHashSet<>();
+		if (!(this.applicationContext
+				.getAutowireCapableBeanFactory() instanceof ConfigurableListableBeanFactory)) {
+			result.addAll(names);
+			return result;
 		}
+		ConfigurableListableBeanFactory beanFactory = (ConfigurableListableBeanFactory) this.applicationContext
+				.getAutowireCapableBeanFactory();
+		for (String name : names) {
+			for (String dependency : beanFactory.getDependenciesForBean(name)) {
+				if (names.contains(dependency)) {
+					result.add(name);
+					result.add(dependency);
+				}
+			}
+		}
+		return result;
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (this.parallelism <= 1 || this.applicationContext == null) {
+			return null;
+		}
+		if (this.executor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+					"rebind-");
+			threadFactory.setDaemon(true);
+			this.executor = Executors.newFixedThreadPool(this.parallelism,
+					threadFactory);
+		}
+		return this.executor;
+	}
+
+	private synchronized RebindPropertySources getPropertySources() {
+		if (!this.propertySourcesInitialized && this.nameFilter
+				&& this.applicationContext != null) {
+			this.propertySourcesInitialized = true;
+			this.propertySources = RebindPropertySources
+					.install(this.applicationContext);
+			this.beans.setPropertySources(this.propertySources);
+		}
+		return this.propertySources;
 	}
 
 	@ManagedOperation
 	public boolean rebind(String name) {
-		if (!this.beans.getBeanNames().contains(name)) {
+		return rebind(name, null);
+	}
+
+	private boolean rebind(String name, RebindPropertySources.Plan plan) {
+		if (!this.beans.containsBean(name)) {
 			return false;
 		}
 		if (this.applicationContext != null) {
@@ -96,6 +337,9 @@ public class ConfigurationPropertiesRebinder
 				if (AopUtils.isAopProxy(bean)) {
 					bean = ProxyUtils.getTargetObject(bean);
 				}
+				if (plan != null) {
+					this.propertySources.begin(plan, this.beans.getPrefix(name), bean);
+				}
 				this.applicationContext.getAutowireCapableBeanFactory().destroyBean(bean);
 				this.applicationContext.getAutowireCapableBeanFactory()
 						.initializeBean(bean, name);
@@ -105,6 +349,11 @@ public class ConfigurationPropertiesRebinder
 				this.errors.put(name, e);
 				throw e;
 			}
+			finally {
+				if (plan != null) {
+					this.propertySources.end();
+				}
+			}
 		}
 		return false;
 	}
@@ -116,11 +365,36 @@ public class ConfigurationPropertiesRebinder
 
 	@Override
 	public void onApplicationEvent(EnvironmentChangeEvent event) {
+		long start = System.nanoTime();
+		boolean rebound = false;
 		if (this.applicationContext.equals(event.getSource())
 				// Backwards compatible
 				|| event.getKeys().equals(event.getSource())) {
-			rebind();
+			if (event.getKeys().equals(event.getSource())) {
+				// Not sure what changed
+				rebind();
+				rebound = true;
+			}
+			else if (!event.getKeys().isEmpty()) {
+				rebind(event.getKeys());
+				rebound = true;
+			}
+		}
+		this.lastEventRebindTime = new EventRebindTime(event, rebound
+				? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : 0);
+	}
+
+	private static class EventRebindTime {
+
+		private final EnvironmentChangeEvent event;
+
+		private final long time;
+
+		EventRebindTime(EnvironmentChangeEvent event, long time) {
+			this.event = event;
+			this.time = time;
 		}
+
 	}
 
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.properties;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A trie of property key prefixes, with the names of the beans bound to each prefix. Keys
+ * are split into segments on '.' and '[', and each segment is compared in a relaxed form
+ * (lower case, ignoring dashes and underscores), so "foo.barSpam" and "foo.bar-spam" are
+ * the same key. A bean with an empty prefix sits at the root and matches all keys.
+ *
+ * @see ConfigurationPropertiesBeans#getBeanNames(Collection)
+ */
+class PrefixTrie {
+
+	private final Node root = new Node();
+
+	/**
+	 * Add a bean to the trie.
+	 *
+	 * @param prefix the prefix the bean is bound to
+	 * @param name the bean name
+	 */
+	public synchronized void add(String prefix, String name) {
+		Node node = this.root;
+		for (String segment : segments(prefix)) {
+			Node child = node.children.get(segment);
+			if (child == null) {
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		node.names.add(name);
+	}
+
+	/**
+	 * Find the beans that might be affected by a change to a key: the ones bound to a
+	 * prefix of the key, and the ones bound to a prefix that starts with the key.
+	 *
+	 * @param key a property key
+	 * @param result the set to add the bean names to
+	 */
+	public synchronized void collect(String key, Set<String> result) {
+		Node node = this.root;
+		result.addAll(node.names);
+		for (String segment : segments(key)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				return;
+			}
+			result.addAll(node.names);
+		}
+		// The key is a prefix of some beans' prefixes (e.g. a whole map or list changed)
+		for (Node child : node.children.values()) {
+			collectAll(child, result);
+		}
+	}
+
+	private void collectAll(Node node, Set<String> result) {
+		result.addAll(node.names);
+		for (Node child : node.children.values()) {
+			collectAll(child, result);
+		}
+	}
+
+	private static List<String> segments(String key) {
+		List<String> result = new ArrayList<>();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < key.length(); i++) {
+			char ch = key.charAt(i);
+			if (ch == '.' || ch == '[') {
+				add(builder, result);
+			}
+			else if (ch != '-' && ch != '_' && ch != ']') {
+				builder.append(Character.toLowerCase(ch));
+			}
+		}
+		add(builder, result);
+		return result;
+	}
+
+	private static void add(StringBuilder builder, List<String> result) {
+		if (builder.length() > 0) {
+			result.add(builder.toString());
+			builder.setLength(0);
+		}
+	}
+
+	private static class Node {
+
+		private final Map<String, Node> children = new HashMap<>();
+
+		private final Set<String> names = new LinkedHashSet<>();
+
+	}
+
+}
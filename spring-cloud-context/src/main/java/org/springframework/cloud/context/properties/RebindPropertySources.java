@@ -0,0 +1,306 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.properties;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessor;
+import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessorRegistrar;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.PropertySources;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * The {@link PropertySources} used by the <code>@ConfigurationProperties</code> binder
+ * in a context with a {@link ConfigurationPropertiesRebinder} (if
+ * <code>spring.cloud.refresh.rebind-name-filter=true</code>). Normally it is just a view
+ * of the real property sources, but while a bean is being rebound (in the thread that is
+ * doing the rebinding) the enumerable sources only list the property names that might
+ * belong to the bean's prefix. The filter is only switched on when the bean itself is
+ * about to be bound (see {@link #initializing(Object)}), so other beans created on the
+ * way (e.g. lazy ones looked up by an init method) are bound against all the names. The
+ * binder checks every property name against every bean it binds, so with a lot of beans
+ * and a lot of properties most of the time spent rebinding goes on rejecting names that
+ * cannot match. The names are indexed once per rebind (in a {@link Plan}) and looked up
+ * by prefix for each bean. Values are still resolved from the original sources, so
+ * placeholders and precedence are unaffected.
+ * <p>
+ * The binder has no public accessor for its property sources, so they are read from a
+ * private field. That is why this is off by default.
+ */
+class RebindPropertySources implements PropertySources {
+
+	private static final Log logger = LogFactory.getLog(RebindPropertySources.class);
+
+	private final ThreadLocal<Target> target = new ThreadLocal<>();
+
+	private final PropertySources delegate;
+
+	RebindPropertySources(PropertySources delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Install a view of the property sources in the binder in the context provided.
+	 *
+	 * @param context the application context
+	 * @return the view, or null if the binder could not be found or has no property
+	 * sources yet
+	 */
+	static RebindPropertySources install(ApplicationContext context) {
+		String name = ConfigurationPropertiesBindingPostProcessorRegistrar.BINDER_BEAN_NAME;
+		if (!context.containsBean(name)) {
+			return null;
+		}
+		ConfigurationPropertiesBindingPostProcessor binder = context.getBean(name,
+				ConfigurationPropertiesBindingPostProcessor.class);
+		Field field = ReflectionUtils.findField(
+				ConfigurationPropertiesBindingPostProcessor.class, "propertySources");
+		if (field == null) {
+			logger.debug("Cannot find property sources in binder");
+			return null;
+		}
+		ReflectionUtils.makeAccessible(field);
+		Object sources = ReflectionUtils.getField(field, binder);
+		if (sources instanceof RebindPropertySources) {
+			return (RebindPropertySources) sources;
+		}
+		if (!(sources instanceof PropertySources)) {
+			return null;
+		}
+		RebindPropertySources result = new RebindPropertySources(
+				(PropertySources) sources);
+		binder.setPropertySources(result);
+		logger.info("Filtering property names by prefix when rebinding");
+		return result;
+	}
+
+	/**
+	 * @return a new plan for a batch of beans to rebind
+	 */
+	Plan plan() {
+		return new Plan();
+	}
+
+	/**
+	 * Restrict the property names visible in the current thread to the ones that might
+	 * match the prefix provided while the bean provided is being bound, until
+	 * {@link #end()} is called.
+	 *
+	 * @param plan the plan for the current batch
+	 * @param prefix the prefix of the bean being rebound
+	 * @param bean the bean being rebound
+	 */
+	void begin(Plan plan, String prefix, Object bean) {
+		if (StringUtils.hasText(prefix)) {
+			this.target.set(new Target(plan, normalize(prefix), bean));
+		}
+	}
+
+	void end() {
+		this.target.remove();
+	}
+
+	/**
+	 * Callback for a bean that is about to be initialized (and bound) in the current
+	 * thread. The names are only filtered if it is the bean being rebound.
+	 *
+	 * @param bean the bean being initialized
+	 */
+	void initializing(Object bean) {
+		Target target = this.target.get();
+		if (target != null) {
+			target.active = target.bean == bean;
+		}
+	}
+
+	@Override
+	public Iterator<PropertySource<?>> iterator() {
+		Target target = this.target.get();
+		if (target == null || !target.active) {
+			return this.delegate.iterator();
+		}
+		List<PropertySource<?>> result = new ArrayList<>();
+		for (PropertySource<?> source : this.delegate) {
+			result.add(target.plan.filter(source, target.prefix));
+		}
+		return result.iterator();
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return this.delegate.contains(name);
+	}
+
+	@Override
+	public PropertySource<?> get(String name) {
+		return this.delegate.get(name);
+	}
+
+	/**
+	 * Lower case with all the separators removed, so that all the relaxed forms of a
+	 * name (e.g. "foo.bar-spam", "FOO_BARSPAM" and "foo.barSpam") are the same, and a
+	 * name under a prefix starts with the prefix.
+	 */
+	static String normalize(String name) {
+		StringBuilder builder = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (ch != '.' && ch != '-' && ch != '_' && ch != '[' && ch != ']') {
+				builder.append(Character.toLowerCase(ch));
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * The property names of each source, indexed by normalized name. Only valid while
+	 * the sources do not change, i.e. for the duration of one rebind.
+	 */
+	static class Plan {
+
+		private final Map<PropertySource<?>, Index> indexes = Collections
+				.synchronizedMap(new IdentityHashMap<PropertySource<?>, Index>());
+
+		PropertySource<?> filter(PropertySource<?> source, String prefix) {
+			if (source instanceof CompositePropertySource) {
+				// Keep the structure so that lists still come from a single source
+				CompositePropertySource result = new CompositePropertySource(
+						source.getName());
+				for (PropertySource<?> nested : ((CompositePropertySource) source)
+						.getPropertySources()) {
+					result.addPropertySource(filter(nested, prefix));
+				}
+				return result;
+			}
+			if (!(source instanceof EnumerablePropertySource)) {
+				return source;
+			}
+			EnumerablePropertySource<?> enumerable = (EnumerablePropertySource<?>) source;
+			return new FilteredPropertySource(enumerable,
+					index(enumerable).getNames(prefix));
+		}
+
+		private Index index(EnumerablePropertySource<?> source) {
+			Index index = this.indexes.get(source);
+			if (index == null) {
+				index = new Index(source.getPropertyNames());
+				this.indexes.put(source, index);
+			}
+			return index;
+		}
+
+	}
+
+	private static class Index {
+
+		private final String[] names;
+
+		private final TreeMap<String, List<Integer>> positions = new TreeMap<>();
+
+		Index(String[] names) {
+			this.names = names;
+			for (int i = 0; i < names.length; i++) {
+				String key = normalize(names[i]);
+				List<Integer> list = this.positions.get(key);
+				if (list == null) {
+					list = new ArrayList<>(1);
+					this.positions.put(key, list);
+				}
+				list.add(i);
+			}
+		}
+
+		String[] getNames(String prefix) {
+			List<Integer> matches = new ArrayList<>();
+			for (List<Integer> list : this.positions
+					.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+				matches.addAll(list);
+			}
+			// Same order as the source
+			Collections.sort(matches);
+			String[] result = new String[matches.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = this.names[matches.get(i)];
+			}
+			return result;
+		}
+
+	}
+
+	private static class FilteredPropertySource extends EnumerablePropertySource<Object> {
+
+		private final EnumerablePropertySource<?> delegate;
+
+		private final String[] names;
+
+		FilteredPropertySource(EnumerablePropertySource<?> delegate, String[] names) {
+			super(delegate.getName(), delegate.getSource());
+			this.delegate = delegate;
+			this.names = names;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return this.names;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return this.delegate.getProperty(name);
+		}
+
+		@Override
+		public boolean containsProperty(String name) {
+			return this.delegate.containsProperty(name);
+		}
+
+	}
+
+	private static class Target {
+
+		private final Plan plan;
+
+		private final String prefix;
+
+		private final Object bean;
+
+		private boolean active;
+
+		Target(Plan plan, String prefix, Object bean) {
+			this.plan = plan;
+			this.prefix = prefix;
+			this.bean = bean;
+		}
+
+	}
+
+}
@@ -2,17 +2,27 @@ package org.springframework.cloud.context.refresh;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.Banner.Mode;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.context.config.ConfigFileApplicationListener;
 import org.springframework.cloud.bootstrap.BootstrapApplicationListener;
 import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.context.properties.ConfigurationPropertiesRebinder;
 import org.springframework.cloud.context.scope.refresh.RefreshScope;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Configuration;
@@ -24,15 +34,23 @@ import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.env.MutablePropertySources;
 import org.springframework.core.env.PropertySource;
 import org.springframework.core.env.StandardEnvironment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
 import org.springframework.web.context.support.StandardServletEnvironment;
 
 /**
  * @author Dave Syer
  * @author Venil Noronha
  */
-public class ContextRefresher {
+public class ContextRefresher implements DisposableBean {
 
-	private static final String REFRESH_ARGS_PROPERTY_SOURCE = "refreshArgs";
+	/**
+	 * The name of a property source that is only present in the environment of the
+	 * (bootstrap and application) contexts that are created to refresh the property
+	 * sources.
+	 */
+	public static final String REFRESH_ARGS_PROPERTY_SOURCE = "refreshArgs";
 
 	private static final String[] DEFAULT_PROPERTY_SOURCES = new String[] { // order
 																			// matters,
@@ -53,36 +71,177 @@ public class ContextRefresher {
 
 	private ConfigurableApplicationContext context;
 	private RefreshScope scope;
+	private EnvironmentReloader reloader;
+	private Executor executor;
+	private ExecutorService defaultExecutor;
 
 	public ContextRefresher(ConfigurableApplicationContext context, RefreshScope scope) {
 		this.context = context;
 		this.scope = scope;
 	}
 
-	public synchronized Set<String> refresh() {
-		Map<String, Object> before = extract(
+	/**
+	 * Flag to say that the property sources should be reloaded without starting a new
+	 * (bootstrap and application) context on every refresh. It is a lot cheaper, because
+	 * it re-uses the bootstrap context that the application started with and only asks
+	 * its property source locators for new property sources. If the bootstrap
+	 * configuration itself changes (e.g. the bootstrap config files), a refresh creates a
+	 * new bootstrap context as it would without this flag, and keeps it open for the
+	 * lightweight refreshes that follow. Default false.
+	 *
+	 * @param lightweight the flag to set
+	 */
+	public synchronized void setLightweight(boolean lightweight) {
+		EnvironmentReloader reloader = null;
+		if (lightweight) {
+			reloader = new EnvironmentReloader(this.context);
+			reloader.initialize(copyEnvironment(this.context.getEnvironment()));
+		}
+		if (this.reloader != null) {
+			close(this.reloader.getBootstrapContext());
+		}
+		this.reloader = reloader;
+	}
+
+	/**
+	 * The executor for {@link #refreshAsync()}. Default is a single daemon thread, created
+	 * the first time it is needed.
+	 *
+	 * @param executor the executor to set
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public Set<String> refresh() {
+		return refreshWithTimings().getKeys();
+	}
+
+	/**
+	 * Refresh the context, and report how long each phase took.
+	 *
+	 * @return the keys that changed and the timings
+	 */
+	public synchronized RefreshResult refreshWithTimings() {
+		Map<String, Long> timings = new LinkedHashMap<>();
+		long start = System.nanoTime();
+		List<EnumerablePropertySource<?>> before = extract(
 				this.context.getEnvironment().getPropertySources());
 		addConfigFilesToEnvironment();
+		start = lap(timings, RefreshResult.RELOAD, start);
 		Set<String> keys = changes(before,
-				extract(this.context.getEnvironment().getPropertySources())).keySet();
-		this.context.publishEvent(new EnvironmentChangeEvent(context, keys));
-		this.scope.refreshAll();
-		return keys;
+				extract(this.context.getEnvironment().getPropertySources()));
+		start = lap(timings, RefreshResult.DIFF, start);
+		EnvironmentChangeEvent event = new EnvironmentChangeEvent(context, keys);
+		this.context.publishEvent(event);
+		long rebind = 0;
+		for (ConfigurationPropertiesRebinder rebinder : this.context
+				.getBeansOfType(ConfigurationPropertiesRebinder.class, false, false)
+				.values()) {
+			// Only this event (there may have been other rebinds since the last refresh)
+			rebind += rebinder.getRebindTime(event);
+		}
+		start = lap(timings, RefreshResult.EVENT, start);
+		timings.put(RefreshResult.EVENT,
+				Math.max(0, timings.get(RefreshResult.EVENT) - rebind));
+		timings.put(RefreshResult.REBIND, rebind);
+		if (!this.scope.isKeyTracking()) {
+			// Otherwise the scope already refreshed the affected beans
+			this.scope.refreshAll();
+		}
+		lap(timings, RefreshResult.SCOPE, start);
+		return new RefreshResult(keys, timings);
+	}
+
+	/**
+	 * Publish an {@link EnvironmentChangeEvent} for keys that were changed in the
+	 * environment of the context outside a refresh (e.g. by property sources that were
+	 * located in the background), and refresh the {@link RefreshScope} as a refresh
+	 * would. A refresh holds the lock on this object, so the caller can synchronize on it
+	 * while it changes the environment to make sure that a refresh does not interleave.
+	 *
+	 * @param keys the keys that changed
+	 */
+	public synchronized void publish(Set<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context, keys));
+		if (!this.scope.isKeyTracking()) {
+			this.scope.refreshAll();
+		}
+	}
+
+	/**
+	 * Refresh the context in the background.
+	 *
+	 * @return a future for the result of the refresh
+	 * @see #setExecutor(Executor)
+	 */
+	public ListenableFuture<RefreshResult> refreshAsync() {
+		ListenableFutureTask<RefreshResult> task = new ListenableFutureTask<>(
+				new Callable<RefreshResult>() {
+					@Override
+					public RefreshResult call() throws Exception {
+						return refreshWithTimings();
+					}
+				});
+		getExecutor().execute(task);
+		return task;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.reloader != null) {
+			close(this.reloader.getBootstrapContext());
+			this.reloader = null;
+		}
+		if (this.defaultExecutor != null) {
+			this.defaultExecutor.shutdown();
+			this.defaultExecutor = null;
+		}
+	}
+
+	private synchronized Executor getExecutor() {
+		if (this.executor != null) {
+			return this.executor;
+		}
+		if (this.defaultExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+					"context-refresher-");
+			threadFactory.setDaemon(true);
+			this.defaultExecutor = Executors.newSingleThreadExecutor(threadFactory);
+		}
+		return this.defaultExecutor;
+	}
+
+	private long lap(Map<String, Long> timings, String phase, long start) {
+		long now = System.nanoTime();
+		timings.put(phase, TimeUnit.NANOSECONDS.toMillis(now - start));
+		return now;
 	}
 
 	/* for testing */ ConfigurableApplicationContext addConfigFilesToEnvironment() {
 		ConfigurableApplicationContext capture = null;
+		boolean retained = false;
 		try {
 			StandardEnvironment environment = copyEnvironment(
 					this.context.getEnvironment());
-			SpringApplicationBuilder builder = new SpringApplicationBuilder(Empty.class)
-					.bannerMode(Mode.OFF).web(false).environment(environment);
-			// Just the listeners that affect the environment (e.g. excluding logging
-			// listener because it has side effects)
-			builder.application()
-					.setListeners(Arrays.asList(new BootstrapApplicationListener(),
-							new ConfigFileApplicationListener()));
-			capture = builder.run();
+			if (this.reloader == null || !this.reloader.reload(environment)) {
+				if (this.reloader != null) {
+					// Start again with a new bootstrap context
+					environment = copyEnvironment(this.context.getEnvironment());
+				}
+				SpringApplicationBuilder builder = new SpringApplicationBuilder(
+						Empty.class).bannerMode(Mode.OFF).web(false)
+								.environment(environment);
+				// Just the listeners that affect the environment (e.g. excluding logging
+				// listener because it has side effects)
+				builder.application()
+						.setListeners(Arrays.asList(new BootstrapApplicationListener(),
+								new ConfigFileApplicationListener()));
+				capture = builder.run();
+			}
 			if (environment.getPropertySources().contains(REFRESH_ARGS_PROPERTY_SOURCE)) {
 				environment.getPropertySources().remove(REFRESH_ARGS_PROPERTY_SOURCE);
 			}
@@ -110,27 +269,39 @@ public class ContextRefresher {
 					}
 				}
 			}
+			if (capture != null && this.reloader != null) {
+				// The next lightweight reload needs the new bootstrap context
+				close(this.reloader.replace(capture,
+						copyEnvironment(this.context.getEnvironment())));
+				retained = true;
+			}
 		}
 		finally {
-			ConfigurableApplicationContext closeable = capture;
-			while (closeable != null) {
-				try {
-					closeable.close();
-				}
-				catch (Exception e) {
-					// Ignore;
-				}
-				if (closeable.getParent() instanceof ConfigurableApplicationContext) {
-					closeable = (ConfigurableApplicationContext) closeable.getParent();
-				}
-				else {
-					break;
-				}
+			if (!retained) {
+				close(capture);
 			}
 		}
 		return capture;
 	}
 
+	private void close(ConfigurableApplicationContext context) {
+		ConfigurableApplicationContext closeable = context;
+		while (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (Exception e) {
+				// Ignore;
+			}
+			if (closeable.getParent() instanceof ConfigurableApplicationContext) {
+				closeable = (ConfigurableApplicationContext) closeable.getParent();
+			}
+			else {
+				break;
+			}
+		}
+	}
+
 	// Don't use ConfigurableEnvironment.merge() in case there are clashes with property
 	// source names
 	private StandardEnvironment copyEnvironment(ConfigurableEnvironment input) {
@@ -140,12 +311,12 @@ public class ContextRefresher {
 		// environment (everything else should be pristine, just like it was on startup).
 		for (String name : DEFAULT_PROPERTY_SOURCES) {
 			if (input.getPropertySources().contains(name)) {
+				PropertySource<?> source = copy(input.getPropertySources().get(name));
 				if (capturedPropertySources.contains(name)) {
-					capturedPropertySources.replace(name,
-							input.getPropertySources().get(name));
+					capturedPropertySources.replace(name, source);
 				}
 				else {
-					capturedPropertySources.addLast(input.getPropertySources().get(name));
+					capturedPropertySources.addLast(source);
 				}
 			}
 		}
@@ -159,25 +330,96 @@ public class ContextRefresher {
 		return environment;
 	}
 
-	private Map<String, Object> changes(Map<String, Object> before,
-			Map<String, Object> after) {
-		Map<String, Object> result = new HashMap<String, Object>();
-		for (String key : before.keySet()) {
-			if (!after.containsKey(key)) {
-				result.put(key, null);
+	private PropertySource<?> copy(PropertySource<?> source) {
+		if (source.getClass() == MapPropertySource.class) {
+			// The bootstrap listener adds to the default properties, and the live ones
+			// have to stay as they were until the refresh has worked out what changed
+			return new MapPropertySource(source.getName(), new LinkedHashMap<String, Object>(
+					((MapPropertySource) source).getSource()));
+		}
+		return source;
+	}
+
+	/**
+	 * Compute the keys whose values changed between two lists of property sources.
+	 * Sources are only compared key by key if they were replaced (the ones that were not
+	 * touched by the refresh are the same instances as before, so they are skipped), and
+	 * then only the keys that differ are resolved against the whole list, so the cost is
+	 * proportional to the size of the sources that changed, not the whole environment.
+	 */
+	private Set<String> changes(List<EnumerablePropertySource<?>> before,
+			List<EnumerablePropertySource<?>> after) {
+		// The sources from before that have not been matched with one from after yet
+		Set<PropertySource<?>> remaining = Collections
+				.newSetFromMap(new IdentityHashMap<PropertySource<?>, Boolean>());
+		remaining.addAll(before);
+		Map<String, EnumerablePropertySource<?>> previous = new HashMap<>();
+		for (EnumerablePropertySource<?> source : before) {
+			if (!previous.containsKey(source.getName())) {
+				previous.put(source.getName(), source);
+			}
+		}
+		Set<String> candidates = new HashSet<>();
+		for (EnumerablePropertySource<?> source : after) {
+			if (remaining.remove(source)) {
+				// Unchanged
+				if (previous.get(source.getName()) == source) {
+					previous.remove(source.getName());
+				}
+				continue;
 			}
-			else if (!equal(before.get(key), after.get(key))) {
-				result.put(key, after.get(key));
+			EnumerablePropertySource<?> old = previous.remove(source.getName());
+			if (old == null || !remaining.remove(old)) {
+				// A new source
+				Collections.addAll(candidates, source.getPropertyNames());
 			}
+			else {
+				diff(old, source, candidates);
+			}
+		}
+		for (PropertySource<?> source : remaining) {
+			// Removed sources
+			Collections.addAll(candidates,
+					((EnumerablePropertySource<?>) source).getPropertyNames());
 		}
-		for (String key : after.keySet()) {
-			if (!before.containsKey(key)) {
-				result.put(key, after.get(key));
+		Set<String> result = new HashSet<>();
+		for (String key : candidates) {
+			if (!equal(getProperty(before, key), getProperty(after, key))) {
+				result.add(key);
 			}
 		}
 		return result;
 	}
 
+	private void diff(EnumerablePropertySource<?> before,
+			EnumerablePropertySource<?> after, Set<String> candidates) {
+		if (before instanceof MapPropertySource && after instanceof MapPropertySource
+				&& before.getSource() == after.getSource()) {
+			// Same map, new wrapper
+			return;
+		}
+		for (String key : after.getPropertyNames()) {
+			if (!before.containsProperty(key)
+					|| !equal(before.getProperty(key), after.getProperty(key))) {
+				candidates.add(key);
+			}
+		}
+		for (String key : before.getPropertyNames()) {
+			if (!after.containsProperty(key)) {
+				candidates.add(key);
+			}
+		}
+	}
+
+	private Object getProperty(List<EnumerablePropertySource<?>> sources, String key) {
+		for (EnumerablePropertySource<?> source : sources) {
+			if (source.containsProperty(key)) {
+				return source.getProperty(key);
+			}
+		}
+		return null;
+	}
+
 	private boolean equal(Object one, Object two) {
 		if (one == null && two == null) {
 			return true;
@@ -188,13 +430,14 @@ public class ContextRefresher {
 		return one.equals(two);
 	}
 
-	private Map<String, Object> extract(MutablePropertySources propertySources) {
-		Map<String, Object> result = new HashMap<String, Object>();
-		List<PropertySource<?>> sources = new ArrayList<PropertySource<?>>();
+	/**
+	 * The enumerable, non-standard property sources (with composites expanded) in order
+	 * of precedence, highest first.
+	 */
+	private List<EnumerablePropertySource<?>> extract(
+			MutablePropertySources propertySources) {
+		List<EnumerablePropertySource<?>> result = new ArrayList<>();
 		for (PropertySource<?> source : propertySources) {
-			sources.add(0, source);
-		}
-		for (PropertySource<?> source : sources) {
 			if (!this.standardSources.contains(source.getName())) {
 				extract(source, result);
 			}
@@ -202,26 +445,23 @@ public class ContextRefresher {
 		return result;
 	}
 
-	private void extract(PropertySource<?> parent, Map<String, Object> result) {
+	private void extract(PropertySource<?> parent,
+			List<EnumerablePropertySource<?>> result) {
 		if (parent instanceof CompositePropertySource) {
 			try {
-				List<PropertySource<?>> sources = new ArrayList<PropertySource<?>>();
+				List<EnumerablePropertySource<?>> sources = new ArrayList<>();
 				for (PropertySource<?> source : ((CompositePropertySource) parent)
 						.getPropertySources()) {
-					sources.add(0, source);
-				}
-				for (PropertySource<?> source : sources) {
-					extract(source, result);
+					extract(source, sources);
 				}
+				result.addAll(sources);
 			}
 			catch (Exception e) {
 				return;
 			}
 		}
 		else if (parent instanceof EnumerablePropertySource) {
-			for (String key : ((EnumerablePropertySource<?>) parent).getPropertyNames()) {
-				result.put(key, parent.getProperty(key));
-			}
+			result.add((EnumerablePropertySource<?>) parent);
 		}
 	}
 
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.refresh;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.config.ConfigFileApplicationListener;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.cloud.bootstrap.BootstrapApplicationListener;
+import org.springframework.cloud.bootstrap.config.PropertySourceBootstrapConfiguration;
+import org.springframework.cloud.bootstrap.encrypt.EnvironmentDecryptApplicationInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.env.SystemEnvironmentPropertySource;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Reloads the property sources of an application into a copy of its environment without
+ * creating any application contexts. It does the parts of a normal startup that affect
+ * the environment: the bootstrap and application config files are loaded by the
+ * {@link EnvironmentPostProcessor EnvironmentPostProcessors} (including the
+ * {@link ConfigFileApplicationListener}), and the remote property sources by the
+ * {@link PropertySourceBootstrapConfiguration} (and so the
+ * {@link org.springframework.cloud.bootstrap.config.PropertySourceLocator
+ * PropertySourceLocators}) that the bootstrap context already has. The bootstrap context
+ * is not recreated, so if the bootstrap configuration itself has changed (any property in
+ * the bootstrap config files, or "spring.cloud.bootstrap.*") nothing is reloaded and the
+ * caller has to fall back to a full reload, and then hand over the new bootstrap context
+ * (see {@link #replace}) before the next lightweight reload can succeed.
+ *
+ * @see ContextRefresher#setLightweight(boolean)
+ */
+class EnvironmentReloader {
+
+	private static final Log logger = LogFactory.getLog(EnvironmentReloader.class);
+
+	private static final String CONFIGURATION_PROPERTY_SOURCES = ConfigFileApplicationListener.class
+			.getName() + "$ConfigurationPropertySources";
+
+	private static final Method FINISH_AND_RELOCATE = findFinishAndRelocate();
+
+	private final ConfigurableApplicationContext context;
+
+	// Never run, it's just there for the post processors that want to bind to it
+	private final SpringApplication application = new SpringApplication();
+
+	private Map<String, Object> bootstrapProperties;
+
+	// From the last full reload, if the bootstrap configuration changed
+	private ConfigurableApplicationContext bootstrap;
+
+	EnvironmentReloader(ConfigurableApplicationContext context) {
+		this.context = context;
+		this.application.setWebEnvironment(false);
+	}
+
+	/**
+	 * Record the bootstrap configuration that the bootstrap context was created with, so
+	 * that changes to it can be detected.
+	 *
+	 * @param environment a copy of the application's environment (with just the default
+	 * and command line property sources, and the profiles)
+	 */
+	public void initialize(StandardEnvironment environment) {
+		this.bootstrapProperties = getBootstrapProperties(environment,
+				loadBootstrapConfigFiles(environment));
+	}
+
+	/**
+	 * Use a context that was created by a full reload (after the bootstrap configuration
+	 * changed) for the property source locators from now on, instead of the one that the
+	 * application started with, and record the bootstrap configuration it was created
+	 * with.
+	 *
+	 * @param context the context created by the full reload (with the new bootstrap
+	 * context as its parent)
+	 * @param environment a copy of the application's environment after the full reload
+	 * @return the context that was used before if it also came from a full reload (the
+	 * caller should close it), or null
+	 */
+	public ConfigurableApplicationContext replace(ConfigurableApplicationContext context,
+			StandardEnvironment environment) {
+		ConfigurableApplicationContext previous = this.bootstrap;
+		this.bootstrap = context;
+		initialize(environment);
+		return previous;
+	}
+
+	/**
+	 * @return the context from the last full reload (see {@link #replace}), or null
+	 */
+	public ConfigurableApplicationContext getBootstrapContext() {
+		return this.bootstrap;
+	}
+
+	/**
+	 * Load all the property sources into the environment provided, unless the bootstrap
+	 * configuration is not the one that the current bootstrap context was created with.
+	 *
+	 * @param environment a copy of the application's environment (with just the default
+	 * and command line property sources, and the profiles)
+	 * @return true if the property sources were reloaded, false if the bootstrap
+	 * configuration changed and the bootstrap context needs to be recreated
+	 */
+	public boolean reload(StandardEnvironment environment) {
+		List<PropertySource<?>> bootstrap = loadBootstrapConfigFiles(environment);
+		Map<String, Object> properties = getBootstrapProperties(environment, bootstrap);
+		if (this.bootstrapProperties != null
+				&& !this.bootstrapProperties.equals(properties)) {
+			// Not recorded until there is a bootstrap context to go with it
+			logger.info("Bootstrap configuration changed: full reload required");
+			return false;
+		}
+		MutablePropertySources propertySources = environment.getPropertySources();
+		for (PropertySource<?> source : bootstrap) {
+			addBeforeDefaults(propertySources, source);
+		}
+		postProcess(environment);
+		// Config files from the bootstrap phase go after the ones for the application
+		for (PropertySource<?> source : bootstrap) {
+			if (propertySources.get(source.getName()) == source) {
+				propertySources.remove(source.getName());
+				addBeforeDefaults(propertySources, source);
+			}
+		}
+		decrypt(environment);
+		for (PropertySourceBootstrapConfiguration locators : BeanFactoryUtils
+				.beansOfTypeIncludingAncestors(getContext(),
+						PropertySourceBootstrapConfiguration.class)
+				.values()) {
+			locators.locate(environment);
+		}
+		decrypt(environment);
+		return true;
+	}
+
+	private Map<String, Object> getBootstrapProperties(StandardEnvironment environment,
+			List<PropertySource<?>> bootstrap) {
+		Map<String, Object> result = new HashMap<>();
+		for (String name : new String[] { "spring.cloud.bootstrap.enabled",
+				"spring.cloud.bootstrap.name", "spring.cloud.bootstrap.location",
+				"spring.cloud.bootstrap.sources" }) {
+			result.put(name, environment.getProperty(name));
+		}
+		// Highest precedence last, so it wins
+		for (int i = bootstrap.size() - 1; i >= 0; i--) {
+			PropertySource<?> source = bootstrap.get(i);
+			if (source instanceof EnumerablePropertySource) {
+				for (String name : ((EnumerablePropertySource<?>) source)
+						.getPropertyNames()) {
+					result.put(name, source.getProperty(name));
+				}
+			}
+		}
+		return result;
+	}
+
+	private List<PropertySource<?>> loadBootstrapConfigFiles(
+			StandardEnvironment environment) {
+		List<PropertySource<?>> result = new ArrayList<>();
+		if (!environment.getProperty("spring.cloud.bootstrap.enabled", Boolean.class,
+				true)) {
+			return result;
+		}
+		// Same as the bootstrap context in BootstrapApplicationListener
+		String configName = environment
+				.resolvePlaceholders("${spring.cloud.bootstrap.name:bootstrap}");
+		String configLocation = environment
+				.resolvePlaceholders("${spring.cloud.bootstrap.location:}");
+		StandardEnvironment bootstrapEnvironment = new StandardEnvironment();
+		MutablePropertySources bootstrapProperties = bootstrapEnvironment
+				.getPropertySources();
+		for (PropertySource<?> source : bootstrapProperties) {
+			bootstrapProperties.remove(source.getName());
+		}
+		Map<String, Object> bootstrapMap = new HashMap<>();
+		bootstrapMap.put("spring.config.name", configName);
+		if (StringUtils.hasText(configLocation)) {
+			bootstrapMap.put("spring.config.location", configLocation);
+		}
+		bootstrapProperties.addFirst(new MapPropertySource(
+				BootstrapApplicationListener.BOOTSTRAP_PROPERTY_SOURCE_NAME,
+				bootstrapMap));
+		for (PropertySource<?> source : environment.getPropertySources()) {
+			bootstrapProperties.addLast(source);
+		}
+		bootstrapEnvironment.setActiveProfiles(environment.getActiveProfiles());
+		postProcess(bootstrapEnvironment);
+		for (PropertySource<?> source : bootstrapProperties) {
+			if (!environment.getPropertySources().contains(source.getName())
+					&& !BootstrapApplicationListener.BOOTSTRAP_PROPERTY_SOURCE_NAME
+							.equals(source.getName())) {
+				result.add(source);
+			}
+		}
+		return result;
+	}
+
+	private void postProcess(ConfigurableEnvironment environment) {
+		// Fresh instances every time: the ConfigFileApplicationListener keeps its log
+		// messages until the application is prepared, which never happens here
+		List<EnvironmentPostProcessor> postProcessors = SpringFactoriesLoader
+				.loadFactories(EnvironmentPostProcessor.class,
+						this.context.getClassLoader());
+		postProcessors.add(new ConfigFileApplicationListener());
+		AnnotationAwareOrderComparator.sort(postProcessors);
+		for (EnvironmentPostProcessor postProcessor : postProcessors) {
+			postProcessor.postProcessEnvironment(environment, this.application);
+		}
+		if (FINISH_AND_RELOCATE != null) {
+			// Normally done by a bean factory post processor when the context refreshes
+			ReflectionUtils.invokeMethod(FINISH_AND_RELOCATE, null,
+					environment.getPropertySources());
+		}
+	}
+
+	private void decrypt(ConfigurableEnvironment environment) {
+		for (EnvironmentDecryptApplicationInitializer decrypter : BeanFactoryUtils
+				.beansOfTypeIncludingAncestors(getContext(),
+						EnvironmentDecryptApplicationInitializer.class)
+				.values()) {
+			Map<String, Object> map = decrypter
+					.decrypt(environment.getPropertySources());
+			if (!map.isEmpty()) {
+				environment.getPropertySources()
+						.addFirst(new SystemEnvironmentPropertySource(
+								EnvironmentDecryptApplicationInitializer.DECRYPTED_PROPERTY_SOURCE_NAME,
+								map));
+			}
+		}
+	}
+
+	private ConfigurableApplicationContext getContext() {
+		return this.bootstrap != null ? this.bootstrap : this.context;
+	}
+
+	private void addBeforeDefaults(MutablePropertySources propertySources,
+			PropertySource<?> source) {
+		if (propertySources.contains(BootstrapApplicationListener.DEFAULT_PROPERTIES)) {
+			propertySources.addBefore(BootstrapApplicationListener.DEFAULT_PROPERTIES,
+					source);
+		}
+		else {
+			propertySources.addLast(source);
+		}
+	}
+
+	private static Method findFinishAndRelocate() {
+		ClassLoader classLoader = ConfigFileApplicationListener.class.getClassLoader();
+		if (!ClassUtils.isPresent(CONFIGURATION_PROPERTY_SOURCES, classLoader)) {
+			logger.warn("Cannot find " + CONFIGURATION_PROPERTY_SOURCES
+					+ " (config file property sources will not be expanded)");
+			return null;
+		}
+		Method method = ReflectionUtils.findMethod(
+				ClassUtils.resolveClassName(CONFIGURATION_PROPERTY_SOURCES, classLoader),
+				"finishAndRelocate", MutablePropertySources.class);
+		if (method != null) {
+			ReflectionUtils.makeAccessible(method);
+		}
+		return method;
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.refresh;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The outcome of a {@link ContextRefresher#refreshWithTimings() refresh}: the keys that
+ * changed and the time (in milliseconds) spent in each phase.
+ *
+ * <ul>
+ * <li>{@value #RELOAD}: reloading the property sources into the Environment</li>
+ * <li>{@value #DIFF}: working out which keys changed</li>
+ * <li>{@value #EVENT}: the listeners for the
+ * {@link org.springframework.cloud.context.environment.EnvironmentChangeEvent}, apart
+ * from rebinding</li>
+ * <li>{@value #REBIND}: rebinding the <code>@ConfigurationProperties</code> beans</li>
+ * <li>{@value #SCOPE}: throwing away the refresh scope beans</li>
+ * </ul>
+ */
+public class RefreshResult {
+
+	public static final String RELOAD = "reload";
+
+	public static final String DIFF = "diff";
+
+	public static final String EVENT = "event";
+
+	public static final String REBIND = "rebind";
+
+	public static final String SCOPE = "scope";
+
+	private final Set<String> keys;
+
+	private final Map<String, Long> timings;
+
+	public RefreshResult(Set<String> keys, Map<String, Long> timings) {
+		this.keys = keys;
+		this.timings = Collections
+				.unmodifiableMap(new LinkedHashMap<String, Long>(timings));
+	}
+
+	/**
+	 * @return the keys that changed
+	 */
+	public Set<String> getKeys() {
+		return this.keys;
+	}
+
+	/**
+	 * @return the time in milliseconds for each phase, keyed by phase name
+	 */
+	public Map<String, Long> getTimings() {
+		return this.timings;
+	}
+
+	/**
+	 * @return the total time in milliseconds
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (Long time : this.timings.values()) {
+			total += time;
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "RefreshResult [keys=" + this.keys + ", timings=" + this.timings + "]";
+	}
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A {@link ScopeCache} that stores one value per key (like {@link StandardScopeCache})
+ * but can evict values that have not been used for a while, and can limit the number of
+ * values it holds (evicting the ones that were used least recently to make room). When
+ * it is used by a {@link GenericScope} the scope registers an {@link EvictionListener},
+ * so evicted beans are destroyed (after the callers that are still using them).
+ *
+ * <p>
+ * Values are never evicted by the caller of {@link #get(String)} or
+ * {@link #put(String, Object)} (it might be using one of them). Instead those calls
+ * schedule a sweep on a background {@link #setExecutor(Executor) executor}, at most a few
+ * times per idle period, or when the cache has grown past its maximum size, so the size
+ * limit can be exceeded for a short time. {@link #evictExpired()} can also be called to
+ * look for expired values explicitly (e.g. from a scheduled task).
+ *
+ * @see GenericScope#setScopeCache(ScopeCache)
+ */
+public class ExpiringScopeCache implements ScopeCache {
+
+	private static final Log logger = LogFactory.getLog(ExpiringScopeCache.class);
+
+	private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+	private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private final Runnable sweep = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				sweep();
+			}
+			finally {
+				ExpiringScopeCache.this.sweeping.set(false);
+			}
+			if (isOversized()) {
+				// Something was added while the flag was still set
+				scheduleSweep();
+			}
+		}
+	};
+
+	private Executor executor;
+
+	private volatile long idleNanos = 0;
+
+	private volatile int maxSize = 0;
+
+	private volatile EvictionListener listener;
+
+	/**
+	 * The time after which a value that has not been used is evicted. Default 0, meaning
+	 * values never expire.
+	 *
+	 * @param idleTime the idle time
+	 * @param unit the time unit of the idle time
+	 */
+	public void setIdleTime(long idleTime, TimeUnit unit) {
+		this.idleNanos = unit.toNanos(idleTime);
+	}
+
+	/**
+	 * The maximum number of values to hold. When a new value would take the cache over
+	 * this size the least recently used value is evicted. Default 0, meaning unbounded.
+	 *
+	 * @param maxSize the maximum size
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The executor used to look for values to evict. Default is a single daemon thread
+	 * that is started on demand.
+	 *
+	 * @param executor the executor to set
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * A callback for values that are evicted (but not for values that are removed
+	 * explicitly or cleared).
+	 *
+	 * @param listener the listener to set
+	 */
+	public void setEvictionListener(EvictionListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public Object remove(String name) {
+		Entry entry = this.cache.remove(name);
+		return entry == null ? null : entry.value;
+	}
+
+	@Override
+	public Collection<Object> clear() {
+		List<Object> values = new ArrayList<>();
+		for (String name : this.cache.keySet()) {
+			Entry entry = this.cache.remove(name);
+			if (entry != null) {
+				values.add(entry.value);
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public Object get(String name) {
+		long now = System.nanoTime();
+		Entry entry = this.cache.get(name);
+		if (entry != null) {
+			entry.touch(now);
+		}
+		scheduleSweepIfDue(now);
+		return entry == null ? null : entry.value;
+	}
+
+	@Override
+	public Object put(String name, Object value) {
+		long now = System.nanoTime();
+		Entry entry = new Entry(value, now);
+		Entry result = this.cache.putIfAbsent(name, entry);
+		if (result != null) {
+			result.touch(now);
+			return result.value;
+		}
+		if (isOversized()) {
+			scheduleSweep();
+		}
+		else {
+			scheduleSweepIfDue(now);
+		}
+		return value;
+	}
+
+	/**
+	 * Evict all the values that have not been used for longer than the idle time.
+	 *
+	 * @return the number of values evicted
+	 */
+	public int evictExpired() {
+		long idle = this.idleNanos;
+		if (idle <= 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		this.lastSweep.set(now);
+		int count = 0;
+		for (Map.Entry<String, Entry> item : this.cache.entrySet()) {
+			if (now - item.getValue().lastAccess > idle
+					&& evict(item.getKey(), item.getValue())) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private boolean isOversized() {
+		int maxSize = this.maxSize;
+		return maxSize > 0 && this.cache.size() > maxSize;
+	}
+
+	private void scheduleSweepIfDue(long now) {
+		long idle = this.idleNanos;
+		if (idle <= 0) {
+			return;
+		}
+		// Look for expired values a few times per idle period
+		if (now - this.lastSweep.get() > idle / 4) {
+			scheduleSweep();
+		}
+	}
+
+	private void scheduleSweep() {
+		if (this.sweeping.compareAndSet(false, true)) {
+			try {
+				getExecutor().execute(this.sweep);
+			}
+			catch (RuntimeException e) {
+				this.sweeping.set(false);
+				logger.warn("Cannot schedule scope cache sweep", e);
+			}
+		}
+	}
+
+	private void sweep() {
+		evictExpired();
+		int maxSize = this.maxSize;
+		while (maxSize > 0 && this.cache.size() > maxSize) {
+			if (!evictEldest()) {
+				break;
+			}
+		}
+	}
+
+	private synchronized Executor getExecutor() {
+		if (this.executor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+					"scope-cache-sweeper-");
+			threadFactory.setDaemon(true);
+			// A single thread that goes away when it is idle
+			this.executor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), threadFactory);
+		}
+		return this.executor;
+	}
+
+	private boolean evictEldest() {
+		String eldest = null;
+		Entry candidate = null;
+		for (Map.Entry<String, Entry> item : this.cache.entrySet()) {
+			Entry entry = item.getValue();
+			if (candidate == null || entry.lastAccess - candidate.lastAccess < 0) {
+				eldest = item.getKey();
+				candidate = entry;
+			}
+		}
+		if (candidate == null) {
+			return false;
+		}
+		evict(eldest, candidate);
+		return true;
+	}
+
+	private boolean evict(String name, Entry entry) {
+		if (!this.cache.remove(name, entry)) {
+			// Someone else got there first
+			return false;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Evicted from scope cache: " + name);
+		}
+		EvictionListener listener = this.listener;
+		if (listener != null) {
+			try {
+				listener.evicted(name, entry.value);
+			}
+			catch (RuntimeException e) {
+				logger.warn("Failed to process eviction of: " + name, e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Callback for values that are evicted from an {@link ExpiringScopeCache}.
+	 */
+	public interface EvictionListener {
+
+		/**
+		 * Notification that a value was evicted. It has already been removed from the
+		 * cache when this is called.
+		 *
+		 * @param name the name of the value
+		 * @param value the value
+		 */
+		void evicted(String name, Object value);
+
+	}
+
+	private static class Entry {
+
+		private final Object value;
+
+		private volatile long lastAccess;
+
+		Entry(Object value, long now) {
+			this.value = value;
+			this.lastAccess = now;
+		}
+
+		void touch(long now) {
+			this.lastAccess = now;
+		}
+
+	}
+
+}
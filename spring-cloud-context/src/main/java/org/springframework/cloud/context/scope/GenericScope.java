@@ -18,12 +18,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -40,6 +49,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
@@ -48,11 +58,24 @@ import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.expression.BeanFactoryResolver;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.ReflectionUtils;
 import org.springframework.util.StringUtils;
 
@@ -67,12 +90,19 @@ import org.springframework.util.StringUtils;
  *
  */
 public class GenericScope implements Scope, BeanFactoryPostProcessor,
-		BeanDefinitionRegistryPostProcessor, DisposableBean {
+		BeanDefinitionRegistryPostProcessor, DisposableBean, EnvironmentAware {
 
 	private static final Log logger = LogFactory.getLog(GenericScope.class);
 
 	public static final String SCOPED_TARGET_PREFIX = "scopedTarget.";
 
+	/**
+	 * The wrapper (if any) whose bean is being created by the current thread. Destruction
+	 * callbacks registered during creation belong to that wrapper, even if it is not (yet)
+	 * the one in the cache.
+	 */
+	private static final ThreadLocal<BeanLifecycleWrapper> creating = new ThreadLocal<>();
+
 	private BeanLifecycleWrapperCache cache = new BeanLifecycleWrapperCache(
 			new StandardScopeCache());
 
@@ -82,12 +112,44 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 
 	private StandardEvaluationContext evaluationContext;
 
+	private ExpressionParser parser = new SpelExpressionParser();
+
+	private int expressionCacheSize = 256;
+
+	private final ConcurrentMap<String, Expression> expressions = new ConcurrentHashMap<>();
+
+	private final AtomicLong expressionHits = new AtomicLong();
+
+	private final AtomicLong expressionMisses = new AtomicLong();
+
 	private String id;
 
 	private Map<String, Exception> errors = new ConcurrentHashMap<>();
 
+	/**
+	 * The lock for each bean name. It has to outlive the instances of the bean (callers
+	 * take it before there is an instance to use), so it is kept here and each
+	 * {@link BeanLifecycleWrapper} carries a reference to it. Only used when an instance
+	 * has to be created, so lookups of a cached bean never touch it.
+	 */
 	private ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
 
+	private boolean stripedLocks = false;
+
+	private boolean deferredDestruction = false;
+
+	private Executor disposer;
+
+	private final AtomicInteger pendingDisposals = new AtomicInteger();
+
+	private Environment environment;
+
+	private boolean keyTracking = false;
+
+	private KeyTrackingPropertySource keyTracker;
+
+	private final PropertyKeyIndex keyIndex = new PropertyKeyIndex();
+
 	/**
 	 * Manual override for the serialization id that will be used to identify the bean
 	 * factory. The default is a unique key based on the bean names in the bean factory.
@@ -108,12 +170,113 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 	}
 
 	/**
-	 * The cache implementation to use for bean instances in this scope.
+	 * The cache implementation to use for bean instances in this scope. If it is an
+	 * {@link ExpiringScopeCache} then beans that it evicts are destroyed (on a background
+	 * thread if they are still in use).
 	 *
 	 * @param cache the cache to use
 	 */
 	public void setScopeCache(ScopeCache cache) {
 		this.cache = new BeanLifecycleWrapperCache(cache);
+		if (cache instanceof ExpiringScopeCache) {
+			((ExpiringScopeCache) cache)
+					.setEvictionListener(new ExpiringScopeCache.EvictionListener() {
+						@Override
+						public void evicted(String name, Object value) {
+							evict((BeanLifecycleWrapper) value);
+						}
+					});
+		}
+	}
+
+	/**
+	 * @return true if every thread sees the same instance of a bean, so that a proxy can
+	 * hang on to it until it is removed from the cache
+	 */
+	private boolean isSharedCache() {
+		return this.cache.isShared();
+	}
+
+	/**
+	 * Flag to say that the locks guarding method calls on scoped proxies should be
+	 * striped, so that concurrent callers do not all update the same lock state. Readers
+	 * then only touch shared state while a bean is being destroyed, at the cost of a
+	 * larger lock instance per bean. Default false (use a
+	 * {@link ReentrantReadWriteLock}).
+	 *
+	 * @param stripedLocks the flag to set
+	 */
+	public void setStripedLocks(boolean stripedLocks) {
+		this.stripedLocks = stripedLocks;
+	}
+
+	/**
+	 * Flag to say that beans flushed from this scope should be destroyed on a background
+	 * thread, once all the method calls that are using them have finished, instead of
+	 * on the thread that flushes them. Method calls on scoped proxies then keep a
+	 * reference count for the instance they are using, instead of locking the bean by
+	 * name. Useful if destruction callbacks are slow (e.g. closing a connection pool).
+	 * Destroying the whole scope (e.g. when the application context is closed) still
+	 * waits for all the pending destruction callbacks to finish. Default false.
+	 *
+	 * @param deferredDestruction the flag to set
+	 */
+	public void setDeferredDestruction(boolean deferredDestruction) {
+		this.deferredDestruction = deferredDestruction;
+	}
+
+	/**
+	 * The executor used to run destruction callbacks if they are
+	 * {@link #setDeferredDestruction(boolean) deferred}. Default is a single daemon thread
+	 * that is started on demand.
+	 *
+	 * @param disposer the executor to set
+	 */
+	public void setDisposer(Executor disposer) {
+		this.disposer = disposer;
+	}
+
+	/**
+	 * Flag to say that the scope should record which {@link Environment} keys each bean
+	 * reads while it is being created (including the prefixes of any
+	 * {@link ConfigurationProperties} beans that it depends on), so that
+	 * {@link #getAffectedBeans(Collection)} can tell which beans need to be refreshed when
+	 * some keys change. Default false.
+	 *
+	 * @param keyTracking the flag to set
+	 */
+	public void setKeyTracking(boolean keyTracking) {
+		this.keyTracking = keyTracking;
+	}
+
+	public boolean isKeyTracking() {
+		return this.keyTracking && this.keyTracker != null;
+	}
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		this.environment = environment;
+	}
+
+	/**
+	 * The maximum number of parsed expressions to cache for
+	 * {@link #resolveContextualObject(String)}. Once the cache is full new expressions
+	 * are parsed every time. Default 256.
+	 *
+	 * @param expressionCacheSize the size to set
+	 */
+	public void setExpressionCacheSize(int expressionCacheSize) {
+		this.expressionCacheSize = expressionCacheSize;
+	}
+
+	@ManagedAttribute(description = "Number of contextual object expressions found in the cache.")
+	public long getExpressionCacheHits() {
+		return this.expressionHits.get();
+	}
+
+	@ManagedAttribute(description = "Number of contextual object expressions that had to be parsed.")
+	public long getExpressionCacheMisses() {
+		return this.expressionMisses.get();
 	}
 
 	/**
@@ -127,11 +290,16 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 
 	@Override
 	public void destroy() {
+		if (this.deferredDestruction) {
+			retireAll();
+			awaitDisposal();
+			return;
+		}
 		List<Throwable> errors = new ArrayList<Throwable>();
 		Collection<BeanLifecycleWrapper> wrappers = this.cache.clear();
 		for (BeanLifecycleWrapper wrapper : wrappers) {
 			try {
-				Lock lock = locks.get(wrapper.getName()).writeLock();
+				Lock lock = wrapper.getLock().writeLock();
 				lock.lock();
 				try {
 					wrapper.destroy();
@@ -150,6 +318,33 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 		this.errors.clear();
 	}
 
+	/**
+	 * Destroy beans that have already been taken out of the cache and cannot be reached
+	 * by any other thread (e.g. the ones that belonged to a task that has finished). They
+	 * are destroyed straight away, without taking the locks that are shared with other
+	 * threads, and without waiting for any other beans in the scope.
+	 *
+	 * @param values the values that were in the cache
+	 */
+	protected void destroyDetached(Collection<?> values) {
+		RuntimeException error = null;
+		for (Object value : values) {
+			BeanLifecycleWrapper wrapper = (BeanLifecycleWrapper) value;
+			wrapper.markStale();
+			try {
+				wrapper.destroy();
+			}
+			catch (RuntimeException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
 	/**
 	 * Destroy the named bean (i.e. flush it from the cache by default).
 	 *
@@ -159,7 +354,22 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 	protected boolean destroy(String name) {
 		BeanLifecycleWrapper wrapper = this.cache.remove(name);
 		if (wrapper != null) {
-			Lock lock = locks.get(wrapper.getName()).writeLock();
+			destroy(wrapper);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Destroy a bean that has already been removed from the cache.
+	 */
+	private void destroy(BeanLifecycleWrapper wrapper) {
+		wrapper.markStale();
+		if (this.deferredDestruction) {
+			retire(wrapper);
+		}
+		else {
+			Lock lock = wrapper.getLock().writeLock();
 			lock.lock();
 			try {
 				wrapper.destroy();
@@ -167,19 +377,167 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 			finally {
 				lock.unlock();
 			}
-			this.errors.remove(name);
-			return true;
 		}
-		return false;
+		this.errors.remove(wrapper.getName());
+	}
+
+	/**
+	 * Destroy a bean that has been evicted from the cache, without waiting for the
+	 * callers that are using it (one of them might be the current thread, holding the
+	 * read lock). If it is in use it is destroyed on a background thread when they have
+	 * finished.
+	 */
+	private void evict(final BeanLifecycleWrapper wrapper) {
+		wrapper.markStale();
+		if (this.deferredDestruction) {
+			retire(wrapper);
+			return;
+		}
+		Lock lock = wrapper.getLock().writeLock();
+		if (lock.tryLock()) {
+			try {
+				wrapper.destroy();
+			}
+			finally {
+				lock.unlock();
+			}
+			return;
+		}
+		this.pendingDisposals.incrementAndGet();
+		dispose(wrapper, true);
+	}
+
+	/**
+	 * Flush all the beans from the cache. If destruction is
+	 * {@link #setDeferredDestruction(boolean) deferred} the beans are destroyed later on
+	 * a background thread, otherwise this is the same as {@link #destroy()}.
+	 */
+	protected void retireAll() {
+		if (!this.deferredDestruction) {
+			destroy();
+			return;
+		}
+		for (BeanLifecycleWrapper wrapper : this.cache.clear()) {
+			retire(wrapper);
+		}
+		this.errors.clear();
+	}
+
+	private void retire(BeanLifecycleWrapper wrapper) {
+		this.pendingDisposals.incrementAndGet();
+		if (wrapper.retire()) {
+			dispose(wrapper, false);
+		}
+	}
+
+	/**
+	 * The current instance of the named bean, if it has been created and the cache is
+	 * shared between threads (so it is safe for a proxy to keep it).
+	 */
+	private BeanLifecycleWrapper getShared(String name) {
+		if (!isSharedCache()) {
+			return null;
+		}
+		BeanLifecycleWrapper wrapper = this.cache.get(name);
+		if (wrapper == null || !wrapper.isInitialized() || wrapper.isStale()) {
+			return null;
+		}
+		return wrapper;
+	}
+
+	private BeanLifecycleWrapper retain(String name) {
+		BeanLifecycleWrapper wrapper = this.cache.get(name);
+		if (wrapper != null && wrapper.retain()) {
+			return wrapper;
+		}
+		return null;
+	}
+
+	private void release(BeanLifecycleWrapper wrapper) {
+		if (wrapper.release()) {
+			dispose(wrapper, false);
+		}
+	}
+
+	/**
+	 * Destroy a bean on the disposer thread, optionally taking its write lock first (so
+	 * waiting for the callers that are using it).
+	 */
+	private void dispose(final BeanLifecycleWrapper wrapper, final boolean lock) {
+		getDisposer().execute(new Runnable() {
+			@Override
+			public void run() {
+				Lock writeLock = lock ? wrapper.getLock().writeLock() : null;
+				try {
+					if (writeLock != null) {
+						writeLock.lock();
+					}
+					try {
+						wrapper.destroy();
+					}
+					finally {
+						if (writeLock != null) {
+							writeLock.unlock();
+						}
+					}
+				}
+				catch (RuntimeException e) {
+					logger.error("Cannot destroy bean '" + wrapper.getName() + "'", e);
+				}
+				finally {
+					if (GenericScope.this.pendingDisposals.decrementAndGet() == 0) {
+						synchronized (GenericScope.this.pendingDisposals) {
+							GenericScope.this.pendingDisposals.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void awaitDisposal() {
+		synchronized (this.pendingDisposals) {
+			while (this.pendingDisposals.get() > 0) {
+				try {
+					this.pendingDisposals.wait(100L);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private synchronized Executor getDisposer() {
+		if (this.disposer == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+					getName() + "-scope-disposer-");
+			threadFactory.setDaemon(true);
+			// A single thread that goes away when it is idle
+			this.disposer = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), threadFactory);
+		}
+		return this.disposer;
 	}
 
 	@Override
 	public Object get(String name, ObjectFactory<?> objectFactory) {
-		BeanLifecycleWrapper value = this.cache.put(name,
-				new BeanLifecycleWrapper(name, objectFactory));
-		locks.putIfAbsent(name, new ReentrantReadWriteLock());
+		BeanLifecycleWrapper value = this.cache.get(name);
+		if (value == null) {
+			// Only allocate on a miss, so looking up a cached bean is garbage free
+			value = this.cache.put(name,
+					new BeanLifecycleWrapper(name, objectFactory, getLock(name)));
+		}
+		if (this.keyTracker != null && !value.isInitialized()) {
+			this.keyTracker.ensureFirst();
+		}
 		try {
-			return value.getBean();
+			Object bean = value.getBean();
+			if (this.keyTracker != null && value.markIndexed()) {
+				index(value);
+			}
+			return bean;
 		}
 		catch (RuntimeException e) {
 			this.errors.put(name, e);
@@ -187,6 +545,187 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 		}
 	}
 
+	/**
+	 * Work out which of the beans in this scope depend on the property keys provided.
+	 * Only works if {@link #setKeyTracking(boolean) keyTracking} is enabled. Beans that
+	 * have been created but whose keys are not known (e.g. they were created before the
+	 * scope was ready) are always included.
+	 *
+	 * @param keys the property keys that changed
+	 * @return the names of the cached beans that might be affected
+	 */
+	protected Collection<String> getAffectedBeans(Collection<String> keys) {
+		Set<String> names = new LinkedHashSet<>();
+		for (String name : this.keyIndex.getBeanNames(keys)) {
+			if (this.cache.get(name) != null) {
+				names.add(name);
+			}
+		}
+		for (String name : this.locks.keySet()) {
+			if (!this.keyIndex.contains(name) && this.cache.get(name) != null) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	private void index(BeanLifecycleWrapper wrapper) {
+		Set<String> keys = new LinkedHashSet<>(wrapper.getKeys());
+		collectPrefixes(wrapper.getName(), keys, new HashSet<String>());
+		if (logger.isDebugEnabled()) {
+			logger.debug("Bean '" + wrapper.getName() + "' depends on keys: " + keys);
+		}
+		this.keyIndex.index(wrapper.getName(), keys);
+	}
+
+	/**
+	 * Collect the prefixes of the {@link ConfigurationProperties} beans that the named
+	 * bean depends on (directly or through its factory bean), since those were bound
+	 * before it was created, so the keys were not read while it was being created.
+	 */
+	private void collectPrefixes(String name, Set<String> prefixes, Set<String> seen) {
+		if (!seen.add(name) || !this.beanFactory.containsBean(name)) {
+			return;
+		}
+		String prefix = findPrefix(name);
+		if (prefix != null) {
+			prefixes.add(prefix);
+		}
+		if (this.beanFactory.containsBeanDefinition(name)) {
+			String factory = this.beanFactory.getBeanDefinition(name)
+					.getFactoryBeanName();
+			if (factory != null) {
+				collectPrefixes(factory, prefixes, seen);
+			}
+		}
+		for (String dependency : this.beanFactory.getDependenciesForBean(name)) {
+			collectPrefixes(dependency, prefixes, seen);
+		}
+	}
+
+	private String findPrefix(String name) {
+		if (this.beanFactory.containsBeanDefinition(name)) {
+			BeanDefinition definition = this.beanFactory.getBeanDefinition(name);
+			if (definition instanceof AnnotatedBeanDefinition) {
+				MethodMetadata method = ((AnnotatedBeanDefinition) definition)
+						.getFactoryMethodMetadata();
+				if (method != null) {
+					Map<String, Object> attributes = method.getAnnotationAttributes(
+							ConfigurationProperties.class.getName());
+					if (attributes != null) {
+						String prefix = (String) attributes.get("prefix");
+						return StringUtils.hasText(prefix) ? prefix
+								: (String) attributes.get("value");
+					}
+				}
+			}
+		}
+		Class<?> type = this.beanFactory.getType(name);
+		if (type == null) {
+			return null;
+		}
+		ConfigurationProperties annotation = AnnotationUtils.findAnnotation(type,
+				ConfigurationProperties.class);
+		if (annotation == null) {
+			return null;
+		}
+		return StringUtils.hasText(annotation.prefix()) ? annotation.prefix()
+				: annotation.value();
+	}
+
+	/**
+	 * Create a new instance of every bean that is currently cached in this scope, and
+	 * only when it is ready swap it in for the old instance, which is then destroyed.
+	 * Callers carry on using the old instances in the meantime, so (unlike
+	 * {@link #destroy()}) nobody has to wait for a bean to be constructed. If a new
+	 * instance cannot be created the old one is kept and the error is recorded in
+	 * {@link #getErrors()}.
+	 *
+	 * @return the names of the beans that were replaced
+	 */
+	protected Collection<String> rebuild() {
+		return rebuild(this.locks.keySet());
+	}
+
+	/**
+	 * Create a new instance of each of the named beans that is currently cached in this
+	 * scope, and swap them in when they are ready, just like {@link #rebuild()}.
+	 *
+	 * @param names the names of the beans to rebuild
+	 * @return the names of the beans that were replaced
+	 */
+	protected Collection<String> rebuild(Collection<String> names) {
+		List<String> result = new ArrayList<>();
+		for (String name : names) {
+			if (rebuild(name)) {
+				result.add(name);
+			}
+		}
+		return result;
+	}
+
+	private boolean rebuild(String name) {
+		BeanLifecycleWrapper current = this.cache.get(name);
+		if (current == null) {
+			return false;
+		}
+		if (!current.isInitialized()) {
+			// Nobody can be using it yet, so it's safe to just throw it away
+			return destroy(name);
+		}
+		BeanLifecycleWrapper next = new BeanLifecycleWrapper(name,
+				current.getObjectFactory(), current.getLock());
+		if (this.keyTracker != null) {
+			this.keyTracker.ensureFirst();
+		}
+		try {
+			next.getBean();
+		}
+		catch (RuntimeException e) {
+			logger.warn("Cannot rebuild bean '" + name + "', keeping current instance",
+					e);
+			this.errors.put(name, e);
+			next.destroy();
+			return false;
+		}
+		boolean removed = false;
+		boolean swapped = false;
+		Lock lock = current.getLock().writeLock();
+		lock.lock();
+		try {
+			if (this.cache.get(name) == current) {
+				this.cache.remove(name);
+				removed = true;
+				swapped = this.cache.put(name, next) == next;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		if (removed) {
+			// Even if someone else created a new instance in the meantime, the old one
+			// is no longer in the cache, so it has to be destroyed here
+			if (this.deferredDestruction) {
+				retire(current);
+			}
+			else {
+				// The write lock has drained any callers of the old instance
+				current.destroy();
+			}
+		}
+		if (swapped) {
+			if (this.keyTracker != null && next.markIndexed()) {
+				index(next);
+			}
+			this.errors.remove(name);
+		}
+		else {
+			// Someone else refreshed it in the meantime
+			next.destroy();
+		}
+		return swapped;
+	}
+
 	@Override
 	public String getConversationId() {
 		return this.name;
@@ -194,7 +733,10 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 
 	@Override
 	public void registerDestructionCallback(String name, Runnable callback) {
-		BeanLifecycleWrapper value = this.cache.get(name);
+		BeanLifecycleWrapper value = creating.get();
+		if (value == null || !value.getName().equals(name)) {
+			value = this.cache.get(name);
+		}
 		if (value == null) {
 			return;
 		}
@@ -221,15 +763,23 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 
 	private Expression parseExpression(String input) {
 		if (StringUtils.hasText(input)) {
-			ExpressionParser parser = new SpelExpressionParser();
+			Expression expression = this.expressions.get(input);
+			if (expression != null) {
+				this.expressionHits.incrementAndGet();
+				return expression;
+			}
+			this.expressionMisses.incrementAndGet();
 			try {
-				return parser.parseExpression(input);
+				expression = this.parser.parseExpression(input);
 			}
 			catch (ParseException e) {
 				throw new IllegalArgumentException("Cannot parse expression: " + input,
 						e);
 			}
-
+			if (this.expressions.size() < this.expressionCacheSize) {
+				this.expressions.putIfAbsent(input, expression);
+			}
+			return expression;
 		}
 		else {
 			return null;
@@ -242,6 +792,18 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 		this.beanFactory = beanFactory;
 		beanFactory.registerScope(this.name, this);
 		setSerializationId(beanFactory);
+		// Mixed mode compiles the expressions that are evaluated often enough, and falls
+		// back to interpreting them if that fails
+		this.parser = new SpelExpressionParser(new SpelParserConfiguration(
+				SpelCompilerMode.MIXED, beanFactory.getBeanClassLoader()));
+		this.expressions.clear();
+		this.evaluationContext = new StandardEvaluationContext();
+		this.evaluationContext.setBeanResolver(new BeanFactoryResolver(beanFactory));
+		if (this.keyTracking && this.environment instanceof ConfigurableEnvironment) {
+			this.keyTracker = new KeyTrackingPropertySource(this.name + "ScopeKeys",
+					((ConfigurableEnvironment) this.environment).getPropertySources());
+			this.keyTracker.ensureFirst();
+		}
 	}
 
 	@Override
@@ -308,12 +870,31 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 		return new IllegalStateException(throwable);
 	}
 
+	private ReadWriteLock createLock() {
+		if (this.stripedLocks) {
+			return new StripedReadWriteLock();
+		}
+		return new ReentrantReadWriteLock();
+	}
+
 	protected String getName() {
 		return this.name;
 	}
 
+	protected boolean isDeferredDestruction() {
+		return this.deferredDestruction;
+	}
+
 	protected ReadWriteLock getLock(String beanName) {
-		return locks.get(beanName);
+		ReadWriteLock lock = this.locks.get(beanName);
+		if (lock == null) {
+			lock = createLock();
+			ReadWriteLock existing = this.locks.putIfAbsent(beanName, lock);
+			if (existing != null) {
+				lock = existing;
+			}
+		}
+		return lock;
 	}
 
 	private static class BeanLifecycleWrapperCache {
@@ -324,15 +905,25 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 			this.cache = cache;
 		}
 
+		public boolean isShared() {
+			return this.cache instanceof StandardScopeCache;
+		}
+
 		public BeanLifecycleWrapper remove(String name) {
-			return (BeanLifecycleWrapper) this.cache.remove(name);
+			BeanLifecycleWrapper wrapper = (BeanLifecycleWrapper) this.cache.remove(name);
+			if (wrapper != null) {
+				wrapper.markStale();
+			}
+			return wrapper;
 		}
 
 		public Collection<BeanLifecycleWrapper> clear() {
 			Collection<Object> values = this.cache.clear();
 			Collection<BeanLifecycleWrapper> wrappers = new LinkedHashSet<BeanLifecycleWrapper>();
 			for (Object object : values) {
-				wrappers.add((BeanLifecycleWrapper) object);
+				BeanLifecycleWrapper wrapper = (BeanLifecycleWrapper) object;
+				wrapper.markStale();
+				wrappers.add(wrapper);
 			}
 			return wrappers;
 		}
@@ -357,7 +948,15 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 	 */
 	private static class BeanLifecycleWrapper {
 
-		private Object bean;
+		private static final int RETIRED = Integer.MIN_VALUE;
+
+		private volatile Object bean;
+
+		/**
+		 * Number of method calls using the bean, with the sign bit set once it has been
+		 * retired from the cache.
+		 */
+		private final AtomicInteger references = new AtomicInteger();
 
 		private Runnable callback;
 
@@ -365,24 +964,147 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 
 		private final ObjectFactory<?> objectFactory;
 
-		public BeanLifecycleWrapper(String name, ObjectFactory<?> objectFactory) {
+		/**
+		 * The property keys read while the bean was being created (only touched by the
+		 * creating thread).
+		 */
+		private Set<String> keys;
+
+		private final AtomicBoolean indexed = new AtomicBoolean();
+
+		private final ReadWriteLock lock;
+
+		/**
+		 * Set when the wrapper is removed from the cache, so that proxies holding on to it
+		 * know to look up the current instance again.
+		 */
+		private volatile boolean stale;
+
+		public BeanLifecycleWrapper(String name, ObjectFactory<?> objectFactory,
+				ReadWriteLock lock) {
 			this.name = name;
 			this.objectFactory = objectFactory;
+			this.lock = lock;
+		}
+
+		public ReadWriteLock getLock() {
+			return this.lock;
 		}
 
 		public String getName() {
 			return this.name;
 		}
 
+		public ObjectFactory<?> getObjectFactory() {
+			return this.objectFactory;
+		}
+
 		public void setDestroyCallback(Runnable callback) {
 			this.callback = callback;
 		}
 
+		public boolean isInitialized() {
+			return this.bean != null;
+		}
+
+		/**
+		 * @return the bean if it has been created (never creates it)
+		 */
+		public Object getInstance() {
+			return this.bean;
+		}
+
+		public boolean isStale() {
+			return this.stale;
+		}
+
+		public void markStale() {
+			this.stale = true;
+		}
+
+		public void record(String key) {
+			if (this.keys == null) {
+				this.keys = new LinkedHashSet<>();
+			}
+			this.keys.add(key);
+		}
+
+		public Set<String> getKeys() {
+			return this.keys == null ? Collections.<String>emptySet() : this.keys;
+		}
+
+		/**
+		 * @return true the first time it is called after the bean was created
+		 */
+		public boolean markIndexed() {
+			return this.bean != null && this.indexed.compareAndSet(false, true);
+		}
+
+		/**
+		 * Register a caller of the bean, unless it has already been retired.
+		 *
+		 * @return true if the caller can use the bean
+		 */
+		public boolean retain() {
+			while (true) {
+				int count = this.references.get();
+				if (count < 0) {
+					return false;
+				}
+				if (this.references.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Unregister a caller of the bean.
+		 *
+		 * @return true if the bean is retired and this was the last caller
+		 */
+		public boolean release() {
+			return this.references.decrementAndGet() == RETIRED;
+		}
+
+		/**
+		 * Stop new callers from using the bean.
+		 *
+		 * @return true if the bean is not in use, false if it is (or was already retired)
+		 */
+		public boolean retire() {
+			while (true) {
+				int count = this.references.get();
+				if (count < 0) {
+					return false;
+				}
+				if (this.references.compareAndSet(count, count | RETIRED)) {
+					return count == 0;
+				}
+			}
+		}
+
 		public Object getBean() {
 			if (this.bean == null) {
-				synchronized (this.name) {
+				synchronized (this) {
 					if (this.bean == null) {
-						this.bean = this.objectFactory.getObject();
+						BeanLifecycleWrapper previous = creating.get();
+						creating.set(this);
+						try {
+							this.bean = this.objectFactory.getObject();
+						}
+						finally {
+							if (previous == null) {
+								creating.remove();
+							}
+							else {
+								creating.set(previous);
+								// The outer bean might have copied something from this
+								// one, so it depends on the same keys
+								for (String key : getKeys()) {
+									previous.record(key);
+								}
+							}
+						}
 					}
 				}
 			}
@@ -393,7 +1115,7 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 			if (this.callback == null) {
 				return;
 			}
-			synchronized (this.name) {
+			synchronized (this) {
 				Runnable callback = this.callback;
 				if (callback != null) {
 					callback.run();
@@ -436,6 +1158,43 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 
 	}
 
+	/**
+	 * A property source that never has a value, but sits in front of all the others so
+	 * it sees every key that is looked up in the {@link Environment}, and records it
+	 * against the bean that is being created on the current thread (if any).
+	 */
+	private static class KeyTrackingPropertySource extends PropertySource<Object> {
+
+		private final MutablePropertySources propertySources;
+
+		KeyTrackingPropertySource(String name, MutablePropertySources propertySources) {
+			super(name);
+			this.propertySources = propertySources;
+		}
+
+		/**
+		 * Make sure this is still the first property source. Another one might have been
+		 * added in front of it (e.g. by a refresh), and then it would not see the keys
+		 * that are resolved by that one.
+		 */
+		public synchronized void ensureFirst() {
+			if (this.propertySources.precedenceOf(this) != 0) {
+				this.propertySources.remove(getName());
+				this.propertySources.addFirst(this);
+			}
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			BeanLifecycleWrapper wrapper = creating.get();
+			if (wrapper != null) {
+				wrapper.record(name);
+			}
+			return null;
+		}
+
+	}
+
 	@SuppressWarnings("serial")
 	public static class LockedScopedProxyFactoryBean<S extends GenericScope>
 			extends ScopedProxyFactoryBean implements MethodInterceptor {
@@ -443,6 +1202,19 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 		private final S scope;
 		private String targetBeanName;
 
+		/**
+		 * The lock for the target bean (it's the same one for every instance).
+		 */
+		private volatile ReadWriteLock lock;
+
+		/**
+		 * The current instance of the target bean, cached until the scope removes it, so
+		 * that method calls don't have to go back through the bean factory.
+		 */
+		private volatile BeanLifecycleWrapper current;
+
+		private final ConcurrentMap<Method, Method> methods = new ConcurrentHashMap<>();
+
 		public LockedScopedProxyFactoryBean(S scope) {
 			this.scope = scope;
 		}
@@ -473,15 +1245,16 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 				return invocation.proceed();
 			}
 			Object proxy = getObject();
-			Lock lock = scope.getLock(this.targetBeanName).readLock();
+			if (proxy instanceof Advised && this.scope.isDeferredDestruction()) {
+				return invokeRetained((Advised) proxy, getAccessibleMethod(method),
+						invocation.getArguments());
+			}
+			Lock lock = getLock().readLock();
 			lock.lock();
 			try {
 				if (proxy instanceof Advised) {
-					Advised advised = (Advised) proxy;
-					ReflectionUtils.makeAccessible(method);
-					return ReflectionUtils.invokeMethod(method,
-							advised.getTargetSource().getTarget(),
-							invocation.getArguments());
+					return ReflectionUtils.invokeMethod(getAccessibleMethod(method),
+							getTarget((Advised) proxy), invocation.getArguments());
 				}
 				return invocation.proceed();
 			}
@@ -490,6 +1263,70 @@ public class GenericScope implements Scope, BeanFactoryPostProcessor,
 			}
 		}
 
+		private ReadWriteLock getLock() {
+			ReadWriteLock lock = this.lock;
+			if (lock == null) {
+				lock = this.scope.getLock(this.targetBeanName);
+				this.lock = lock;
+			}
+			return lock;
+		}
+
+		private Method getAccessibleMethod(Method method) {
+			Method accessible = this.methods.get(method);
+			if (accessible == null) {
+				ReflectionUtils.makeAccessible(method);
+				this.methods.putIfAbsent(method, method);
+				accessible = method;
+			}
+			return accessible;
+		}
+
+		private Object getTarget(Advised advised) throws Exception {
+			BeanLifecycleWrapper wrapper = this.current;
+			if (wrapper != null && !wrapper.isStale()) {
+				Object bean = wrapper.getInstance();
+				if (bean != null) {
+					return bean;
+				}
+			}
+			// Not created yet, or removed from the scope, so ask the bean factory
+			Object target = advised.getTargetSource().getTarget();
+			GenericScope scope = this.scope;
+			this.current = scope.getShared(this.targetBeanName);
+			return target;
+		}
+
+		private Object invokeRetained(Advised advised, Method method, Object[] arguments)
+				throws Exception {
+			GenericScope scope = this.scope;
+			while (true) {
+				BeanLifecycleWrapper wrapper = this.current;
+				if (wrapper == null || wrapper.isStale() || !wrapper.retain()) {
+					wrapper = scope.retain(this.targetBeanName);
+					if (wrapper == null) {
+						// Not created yet, or just retired, so the bean factory has to
+						// create a new one
+						advised.getTargetSource().getTarget();
+						wrapper = scope.retain(this.targetBeanName);
+					}
+					if (wrapper == null) {
+						continue;
+					}
+					if (scope.isSharedCache()) {
+						this.current = wrapper;
+					}
+				}
+				try {
+					return ReflectionUtils.invokeMethod(method, wrapper.getBean(),
+							arguments);
+				}
+				finally {
+					scope.release(wrapper);
+				}
+			}
+		}
+
 		private boolean isScopedObjectGetTargetObject(Method method) {
 			return method.getDeclaringClass().equals(ScopedObject.class)
 					&& method.getName().equals("getTargetObject")
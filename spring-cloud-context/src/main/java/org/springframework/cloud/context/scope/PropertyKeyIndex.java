@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index from property keys (or prefixes) to the names of the beans that read them
+ * when they were created. A key matches a bean if the bean read that key or any of its
+ * parents (so a bean bound to "foo" is affected by a change to "foo.bar[0].spam"). Keys
+ * are compared in a relaxed form (lower case, ignoring dashes and underscores), which
+ * might match a few more beans than strictly necessary, but never fewer.
+ *
+ * @see GenericScope#setKeyTracking(boolean)
+ */
+class PropertyKeyIndex {
+
+	private final ConcurrentMap<String, Set<String>> beans = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Set<String>> keys = new ConcurrentHashMap<>();
+
+	/**
+	 * Record the keys that a bean read, replacing any that were recorded for a previous
+	 * instance of the same bean.
+	 *
+	 * @param name the bean name
+	 * @param keys the property keys (or prefixes) that it depends on
+	 */
+	public synchronized void index(String name, Collection<String> keys) {
+		Set<String> canonical = new LinkedHashSet<>();
+		for (String key : keys) {
+			canonical.add(canonical(key));
+		}
+		Set<String> previous = this.keys.put(name, canonical);
+		if (previous != null) {
+			for (String key : previous) {
+				Set<String> names = this.beans.get(key);
+				if (names != null) {
+					names.remove(name);
+				}
+			}
+		}
+		for (String key : canonical) {
+			Set<String> names = this.beans.get(key);
+			if (names == null) {
+				names = Collections
+						.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				this.beans.put(key, names);
+			}
+			names.add(name);
+		}
+	}
+
+	/**
+	 * @param name the bean name
+	 * @return true if the keys read by this bean have been recorded
+	 */
+	public boolean contains(String name) {
+		return this.keys.containsKey(name);
+	}
+
+	/**
+	 * Find the beans that depend on any of the keys provided.
+	 *
+	 * @param changed the property keys that changed
+	 * @return the names of the beans that read those keys (or their parents)
+	 */
+	public Set<String> getBeanNames(Collection<String> changed) {
+		Set<String> result = new LinkedHashSet<>();
+		for (String key : changed) {
+			String candidate = canonical(key);
+			while (true) {
+				Set<String> names = this.beans.get(candidate);
+				if (names != null) {
+					result.addAll(names);
+				}
+				if (candidate.isEmpty()) {
+					break;
+				}
+				candidate = parent(candidate);
+			}
+		}
+		return result;
+	}
+
+	private static String parent(String key) {
+		int index = Math.max(key.lastIndexOf('.'), key.lastIndexOf('['));
+		return index < 0 ? "" : key.substring(0, index);
+	}
+
+	private static String canonical(String key) {
+		StringBuilder builder = new StringBuilder(key.length());
+		for (int i = 0; i < key.length(); i++) {
+			char ch = key.charAt(i);
+			if (ch != '-' && ch != '_') {
+				builder.append(Character.toLowerCase(ch));
+			}
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link ReadWriteLock} that is biased towards readers. While no writer is active a
+ * reader only increments a counter in a stripe chosen by its thread, so readers on
+ * different cores do not write to a shared cache line. A writer raises a flag, waits for
+ * all the stripes to drain and then takes the write lock of an ordinary
+ * {@link ReentrantReadWriteLock}. Readers that arrive while the flag is raised fall back
+ * to the read lock of that same {@link ReentrantReadWriteLock}, so they wait for the
+ * writer to finish just like they would with a plain read-write lock.
+ *
+ * <p>
+ * Both locks are reentrant, and (as with {@link ReentrantReadWriteLock}) a thread that
+ * holds the read lock cannot upgrade to the write lock. Each instance carries a padded
+ * counter array sized from the number of available processors, so it is meant for a
+ * modest number of long-lived, heavily read locks (e.g. one per refresh scoped bean).
+ *
+ * @see GenericScope#setStripedLocks(boolean)
+ */
+class StripedReadWriteLock implements ReadWriteLock {
+
+	/**
+	 * Number of longs between two stripes (two 64 byte cache lines, which also defeats
+	 * adjacent line prefetching).
+	 */
+	private static final int PADDING = 16;
+
+	private static final int MAX_STRIPES = 64;
+
+	private static final int SPINS_BEFORE_PARKING = 64;
+
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final ReentrantReadWriteLock fallback = new ReentrantReadWriteLock();
+
+	private final ReentrantLock writers = new ReentrantLock();
+
+	private final AtomicLongArray readers;
+
+	private final int mask;
+
+	private volatile boolean writing;
+
+	private final Lock readLock = new ReadLock();
+
+	private final Lock writeLock = new WriteLock();
+
+	StripedReadWriteLock() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	StripedReadWriteLock(int stripes) {
+		int size = 1;
+		while (size < stripes && size < MAX_STRIPES) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.readers = new AtomicLongArray(size * PADDING);
+	}
+
+	@Override
+	public Lock readLock() {
+		return this.readLock;
+	}
+
+	@Override
+	public Lock writeLock() {
+		return this.writeLock;
+	}
+
+	private int stripe() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash ^ (hash >>> 16)) & this.mask) * PADDING;
+	}
+
+	private boolean tryStripe() {
+		if (this.writing) {
+			return false;
+		}
+		int stripe = stripe();
+		this.readers.incrementAndGet(stripe);
+		if (!this.writing) {
+			return true;
+		}
+		// A writer arrived between the check and the increment, so back off and let it
+		// see an accurate count
+		this.readers.decrementAndGet(stripe);
+		return false;
+	}
+
+	private boolean drained() {
+		for (int i = 0; i < this.readers.length(); i += PADDING) {
+			if (this.readers.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wait for the striped readers to finish, up to the deadline provided.
+	 *
+	 * @param deadline the value of {@link System#nanoTime()} to give up at, or 0 to wait
+	 * forever
+	 * @param interruptible flag to say whether to stop waiting if interrupted
+	 * @return true if all the striped readers finished
+	 * @throws InterruptedException if interruptible and the thread was interrupted
+	 */
+	private boolean drain(long deadline, boolean interruptible)
+			throws InterruptedException {
+		int spins = 0;
+		while (!drained()) {
+			if (interruptible && Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			if (++spins < SPINS_BEFORE_PARKING) {
+				Thread.yield();
+			}
+			else {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		}
+		return true;
+	}
+
+	private void startWriting() {
+		if (this.writers.getHoldCount() == 1) {
+			this.writing = true;
+		}
+	}
+
+	private void stopWriting() {
+		if (this.writers.getHoldCount() == 1) {
+			this.writing = false;
+		}
+		this.writers.unlock();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "[writing=" + this.writing + ", " + this.fallback
+				+ "]";
+	}
+
+	private class ReadLock implements Lock {
+
+		@Override
+		public void lock() {
+			if (!tryStripe()) {
+				StripedReadWriteLock.this.fallback.readLock().lock();
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			if (!tryStripe()) {
+				StripedReadWriteLock.this.fallback.readLock().lockInterruptibly();
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			return tryStripe() || StripedReadWriteLock.this.fallback.readLock().tryLock();
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			return tryStripe() || StripedReadWriteLock.this.fallback.readLock()
+					.tryLock(time, unit);
+		}
+
+		@Override
+		public void unlock() {
+			// If this thread holds the fallback it is released first. That isn't
+			// necessarily the one taken last, but either kind of hold blocks a writer, so
+			// the net effect is the same.
+			if (StripedReadWriteLock.this.fallback.getReadHoldCount() > 0) {
+				StripedReadWriteLock.this.fallback.readLock().unlock();
+			}
+			else {
+				StripedReadWriteLock.this.readers.decrementAndGet(stripe());
+			}
+		}
+
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private class WriteLock implements Lock {
+
+		@Override
+		public void lock() {
+			StripedReadWriteLock.this.writers.lock();
+			startWriting();
+			try {
+				drain(0, false);
+			}
+			catch (InterruptedException e) {
+				// Not interruptible, so cannot happen
+			}
+			StripedReadWriteLock.this.fallback.writeLock().lock();
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			StripedReadWriteLock.this.writers.lockInterruptibly();
+			startWriting();
+			try {
+				drain(0, true);
+				StripedReadWriteLock.this.fallback.writeLock().lockInterruptibly();
+			}
+			catch (InterruptedException e) {
+				stopWriting();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			if (!StripedReadWriteLock.this.writers.tryLock()) {
+				return false;
+			}
+			startWriting();
+			if (drained() && StripedReadWriteLock.this.fallback.writeLock().tryLock()) {
+				return true;
+			}
+			stopWriting();
+			return false;
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(time);
+			if (!StripedReadWriteLock.this.writers.tryLock(time, unit)) {
+				return false;
+			}
+			startWriting();
+			try {
+				if (drain(deadline, true) && StripedReadWriteLock.this.fallback
+						.writeLock().tryLock(Math.max(0, deadline - System.nanoTime()),
+								TimeUnit.NANOSECONDS)) {
+					return true;
+				}
+			}
+			catch (InterruptedException e) {
+				stopWriting();
+				throw e;
+			}
+			stopWriting();
+			return false;
+		}
+
+		@Override
+		public void unlock() {
+			StripedReadWriteLock.this.fallback.writeLock().unlock();
+			stopWriting();
+		}
+
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
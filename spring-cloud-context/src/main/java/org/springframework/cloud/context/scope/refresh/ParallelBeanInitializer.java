@@ -0,0 +1,290 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.refresh;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Creates a set of beans on a bounded {@link ForkJoinPool}, starting each bean as soon
+ * as all the beans it depends on have been created, so that independent beans are
+ * created in parallel. Dependencies that form a cycle are ignored (the bean factory
+ * resolves those the same way it would if the beans were created one at a time).
+ *
+ * @see RefreshScope#setParallelInitialization(boolean)
+ */
+class ParallelBeanInitializer {
+
+	private static Log logger = LogFactory.getLog(ParallelBeanInitializer.class);
+
+	private final BeanFactory beanFactory;
+
+	private final int parallelism;
+
+	private final String threadNamePrefix;
+
+	private ForkJoinPool pool;
+
+	private boolean closed;
+
+	ParallelBeanInitializer(BeanFactory beanFactory, int parallelism,
+			String threadNamePrefix) {
+		this.beanFactory = beanFactory;
+		this.parallelism = parallelism;
+		this.threadNamePrefix = threadNamePrefix;
+	}
+
+	/**
+	 * Create all the beans in the graph provided and wait for them to finish. If any of
+	 * them fails, the beans that depend on it are skipped, and the first failure is
+	 * re-thrown once all the others are done.
+	 *
+	 * @param dependencies the bean names to create, each mapped to the names of the
+	 * beans (in the same map) that have to be created before it
+	 */
+	public void initialize(Map<String, ? extends Collection<String>> dependencies) {
+		Plan plan = new Plan(dependencies, false);
+		plan.start();
+		try {
+			plan.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while waiting for beans to be created", e);
+		}
+		RuntimeException failure = plan.getFailure();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Create all the beans in the graph provided in the background, and return without
+	 * waiting. Failures are logged.
+	 *
+	 * @param dependencies the bean names to create, each mapped to the names of the
+	 * beans (in the same map) that have to be created before it
+	 */
+	public void initializeAsync(Map<String, ? extends Collection<String>> dependencies) {
+		new Plan(dependencies, true).start();
+	}
+
+	public synchronized void shutdown() {
+		this.closed = true;
+		if (this.pool != null) {
+			this.pool.shutdown();
+			this.pool = null;
+		}
+	}
+
+	private synchronized ForkJoinPool getPool() {
+		if (this.closed) {
+			throw new RejectedExecutionException("Bean initializer is shut down");
+		}
+		if (this.pool == null) {
+			final AtomicInteger count = new AtomicInteger();
+			this.pool = new ForkJoinPool(this.parallelism,
+					new ForkJoinWorkerThreadFactory() {
+						@Override
+						public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+							ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+									.newThread(pool);
+							thread.setName(ParallelBeanInitializer.this.threadNamePrefix
+									+ count.incrementAndGet());
+							return thread;
+						}
+					}, null, false);
+		}
+		return this.pool;
+	}
+
+	/**
+	 * The state of one pass over a dependency graph. Each node counts the dependencies
+	 * it is still waiting for, and the node that brings a count down to zero submits
+	 * that dependent to the pool.
+	 */
+	private class Plan {
+
+		private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+		private final CountDownLatch latch;
+
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+		private final boolean async;
+
+		Plan(Map<String, ? extends Collection<String>> dependencies, boolean async) {
+			this.async = async;
+			for (String name : dependencies.keySet()) {
+				this.nodes.put(name, new Node(name));
+			}
+			for (Map.Entry<String, ? extends Collection<String>> entry : dependencies
+					.entrySet()) {
+				Node node = this.nodes.get(entry.getKey());
+				for (String dependency : entry.getValue()) {
+					Node other = this.nodes.get(dependency);
+					if (other != null && other != node) {
+						node.dependencies.add(other);
+					}
+				}
+			}
+			breakCycles();
+			for (Node node : this.nodes.values()) {
+				node.pending.set(node.dependencies.size());
+				for (Node dependency : node.dependencies) {
+					dependency.dependents.add(node);
+				}
+			}
+			this.latch = new CountDownLatch(this.nodes.size());
+		}
+
+		/**
+		 * Strip the dependencies between nodes that cannot be sorted (i.e. the ones in or
+		 * behind a cycle) so that every node is eventually scheduled.
+		 */
+		private void breakCycles() {
+			Set<Node> sorted = new LinkedHashSet<>();
+			boolean progress = true;
+			while (progress) {
+				progress = false;
+				for (Node node : this.nodes.values()) {
+					if (!sorted.contains(node) && sorted.containsAll(node.dependencies)) {
+						sorted.add(node);
+						progress = true;
+					}
+				}
+			}
+			for (Node node : this.nodes.values()) {
+				if (!sorted.contains(node)) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Ignoring cyclic dependencies of bean: " + node.name);
+					}
+					node.dependencies.retainAll(sorted);
+				}
+			}
+		}
+
+		public void start() {
+			List<Node> ready = new ArrayList<>();
+			for (Node node : this.nodes.values()) {
+				if (node.dependencies.isEmpty()) {
+					ready.add(node);
+				}
+			}
+			for (Node node : ready) {
+				submit(node);
+			}
+		}
+
+		public void await() throws InterruptedException {
+			this.latch.await();
+		}
+
+		public RuntimeException getFailure() {
+			return this.failure.get();
+		}
+
+		private void submit(final Node node) {
+			try {
+				getPool().execute(new Runnable() {
+					@Override
+					public void run() {
+						complete(node, create(node));
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				// Shut down (e.g. the context is closing), so skip the rest of the beans
+				fail(node, e);
+				complete(node, false);
+			}
+		}
+
+		private boolean create(Node node) {
+			if (node.skipped) {
+				return false;
+			}
+			try {
+				Object bean = ParallelBeanInitializer.this.beanFactory.getBean(node.name);
+				if (bean != null) {
+					bean.getClass();
+				}
+				return true;
+			}
+			catch (RuntimeException e) {
+				fail(node, e);
+				return false;
+			}
+		}
+
+		private void fail(Node node, RuntimeException e) {
+			if (!this.failure.compareAndSet(null, e) || this.async) {
+				logger.warn("Failed to create bean: " + node.name, e);
+			}
+		}
+
+		private void complete(Node node, boolean created) {
+			for (Node dependent : node.dependents) {
+				if (!created) {
+					dependent.skipped = true;
+				}
+				if (dependent.pending.decrementAndGet() == 0) {
+					submit(dependent);
+				}
+			}
+			this.latch.countDown();
+		}
+
+	}
+
+	private static class Node {
+
+		private final String name;
+
+		private final Set<Node> dependencies = new LinkedHashSet<>();
+
+		private final List<Node> dependents = new ArrayList<>();
+
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private volatile boolean skipped;
+
+		Node(String name) {
+			this.name = name;
+		}
+
+	}
+
+}
@@ -14,18 +14,31 @@
 package org.springframework.cloud.context.scope.refresh;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.cloud.context.scope.GenericScope;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * <p>
@@ -63,6 +76,29 @@ import org.springframework.jmx.export.annotation.ManagedResource;
  * Scope is declared.
  * </p>
  *
+ * <p>
+ * If the {@link #setBlueGreen(boolean) blueGreen} flag is set then {@link #refreshAll()}
+ * does not destroy the beans straight away. Instead a new generation of the beans that
+ * are currently in use is created in the background, and each new instance replaces the
+ * old one when it is ready. In the meantime callers carry on using the old instances,
+ * so none of them has to wait for a bean to be constructed.
+ * </p>
+ *
+ * <p>
+ * If the {@link #setParallelInitialization(boolean) parallelInitialization} flag is set
+ * then the beans that are initialized eagerly are created on a small pool of threads,
+ * each one as soon as the beans it depends on are ready, and the same pool is used to
+ * create them again in the background after {@link #refreshAll()}.
+ * </p>
+ *
+ * <p>
+ * If the {@link #setKeyTracking(boolean) keyTracking} flag is set then an
+ * {@link EnvironmentChangeEvent} only refreshes the beans that read one of the keys that
+ * changed when they were created (see {@link #refresh(Collection)}), and the
+ * {@link org.springframework.cloud.context.refresh.ContextRefresher} relies on that
+ * instead of calling {@link #refreshAll()}.
+ * </p>
+ *
  * @author Dave Syer
  *
  * @since 3.1
@@ -76,6 +112,12 @@ public class RefreshScope extends GenericScope
 	private BeanDefinitionRegistry registry;
 	private boolean eager = true;
 	private int order = Ordered.LOWEST_PRECEDENCE - 100;
+	private boolean blueGreen = false;
+	private Executor executor;
+	private ExecutorService defaultExecutor;
+	private boolean parallelInitialization = false;
+	private int initializationThreads = Runtime.getRuntime().availableProcessors();
+	private ParallelBeanInitializer initializer;
 
 	/**
 	 * Create a scope instance and give it the default name: "refresh".
@@ -103,6 +145,50 @@ public class RefreshScope extends GenericScope
 		this.eager = eager;
 	}
 
+	/**
+	 * Flag to determine whether {@link #refreshAll()} should build new instances of the
+	 * beans in the background and swap them in when they are ready, instead of destroying
+	 * them and leaving the next caller to create a new one. Default false.
+	 *
+	 * @param blueGreen the flag to set
+	 */
+	public void setBlueGreen(boolean blueGreen) {
+		this.blueGreen = blueGreen;
+	}
+
+	/**
+	 * The executor used to build new instances of beans when the
+	 * {@link #setBlueGreen(boolean) blueGreen} flag is set. Default is a single daemon
+	 * thread, so refreshes are processed in order.
+	 *
+	 * @param executor the executor to set
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Flag to determine whether the beans that are instantiated eagerly should be
+	 * created in parallel (respecting the dependencies between them), and created again
+	 * in the background after {@link #refreshAll()}. Default false.
+	 *
+	 * @param parallelInitialization the flag to set
+	 */
+	public void setParallelInitialization(boolean parallelInitialization) {
+		this.parallelInitialization = parallelInitialization;
+	}
+
+	/**
+	 * The maximum number of threads used to create beans when the
+	 * {@link #setParallelInitialization(boolean) parallelInitialization} flag is set.
+	 * Default is the number of available processors.
+	 *
+	 * @param initializationThreads the number of threads to set
+	 */
+	public void setInitializationThreads(int initializationThreads) {
+		this.initializationThreads = initializationThreads;
+	}
+
 	@Override
 	public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry)
 			throws BeansException {
@@ -119,6 +205,10 @@ public class RefreshScope extends GenericScope
 	}
 
 	private void eagerlyInitialize() {
+		if (this.parallelInitialization) {
+			getInitializer().initialize(getEagerDependencies());
+			return;
+		}
 		for (String name : this.context.getBeanDefinitionNames()) {
             BeanDefinition definition = this.registry.getBeanDefinition(name);
             if (this.getName().equals(definition.getScope()) && !definition.isLazyInit()) {
@@ -130,6 +220,54 @@ public class RefreshScope extends GenericScope
         }
 	}
 
+	/**
+	 * Collect the beans in this scope that are initialized eagerly, each with the names
+	 * of the others that it depends on. Declared dependencies (depends-on and factory
+	 * beans) are always known, and the bean factory also records the beans that were
+	 * injected the last time a bean was created, so the graph is more accurate when the
+	 * beans are created again after a refresh.
+	 */
+	private Map<String, Set<String>> getEagerDependencies() {
+		Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+		for (String name : this.context.getBeanDefinitionNames()) {
+			BeanDefinition definition = this.registry.getBeanDefinition(name);
+			if (this.getName().equals(definition.getScope())
+					&& !definition.isLazyInit()) {
+				dependencies.put(name, new LinkedHashSet<String>());
+			}
+		}
+		for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+			String name = entry.getKey();
+			BeanDefinition definition = this.registry.getBeanDefinition(name);
+			Set<String> names = new LinkedHashSet<>();
+			if (definition.getDependsOn() != null) {
+				for (String dependency : definition.getDependsOn()) {
+					names.add(dependency);
+				}
+			}
+			if (definition.getFactoryBeanName() != null) {
+				names.add(definition.getFactoryBeanName());
+			}
+			if (this.registry instanceof ConfigurableBeanFactory) {
+				for (String dependency : ((ConfigurableBeanFactory) this.registry)
+						.getDependenciesForBean(name)) {
+					names.add(dependency);
+				}
+			}
+			for (String dependency : names) {
+				// Other beans in this scope are injected as proxies, so the dependency is
+				// really on the target
+				if (dependencies.containsKey(dependency)) {
+					entry.getValue().add(dependency);
+				}
+				else if (dependencies.containsKey(SCOPED_TARGET_PREFIX + dependency)) {
+					entry.getValue().add(SCOPED_TARGET_PREFIX + dependency);
+				}
+			}
+		}
+		return dependencies;
+	}
+
 	@ManagedOperation(description = "Dispose of the current instance of bean name provided and force a refresh on next method execution.")
 	public boolean refresh(String name) {
 		if (!name.startsWith(SCOPED_TARGET_PREFIX)) {
@@ -145,10 +283,113 @@ public class RefreshScope extends GenericScope
 		return false;
 	}
 
+	/**
+	 * Refresh the beans affected by a change (if key tracking is enabled). Runs after the
+	 * {@link org.springframework.cloud.context.properties.ConfigurationPropertiesRebinder
+	 * rebinder}, so that the new instances see the new values in the
+	 * <code>@ConfigurationProperties</code> beans they depend on.
+	 *
+	 * @param event the event
+	 */
+	@EventListener
+	@Order(Ordered.LOWEST_PRECEDENCE)
+	public void onEnvironmentChange(EnvironmentChangeEvent event) {
+		if (isKeyTracking()) {
+			refresh(event.getKeys());
+		}
+	}
+
+	/**
+	 * Refresh only the beans that depend on the property keys provided, i.e. the ones
+	 * that read one of those keys (or a prefix of one) when they were created. Needs
+	 * {@link #setKeyTracking(boolean) keyTracking}, otherwise all the beans are
+	 * refreshed.
+	 *
+	 * @param keys the property keys that changed
+	 * @return the names of the beans that were refreshed
+	 */
+	public Collection<String> refresh(Collection<String> keys) {
+		// Without key tracking every cached bean counts as affected
+		final Collection<String> names = getAffectedBeans(keys);
+		if (!isKeyTracking()) {
+			refreshAll();
+			return names;
+		}
+		if (names.isEmpty()) {
+			return names;
+		}
+		if (this.blueGreen) {
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					rebuild(names);
+					RefreshScope.this.context
+							.publishEvent(new RefreshScopeRefreshedEvent());
+				}
+			});
+			return names;
+		}
+		for (String name : names) {
+			super.destroy(name);
+		}
+		this.context.publishEvent(new RefreshScopeRefreshedEvent());
+		return names;
+	}
+
+	@EventListener
+	public void stop(ContextClosedEvent event) {
+		if (event.getApplicationContext() == this.context) {
+			synchronized (this) {
+				if (this.defaultExecutor != null) {
+					this.defaultExecutor.shutdown();
+					this.defaultExecutor = null;
+				}
+				if (this.initializer != null) {
+					this.initializer.shutdown();
+				}
+			}
+		}
+	}
+
 	@ManagedOperation(description = "Dispose of the current instance of all beans in this scope and force a refresh on next method execution.")
 	public void refreshAll() {
-		super.destroy();
+		if (this.blueGreen) {
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					rebuild();
+					RefreshScope.this.context
+							.publishEvent(new RefreshScopeRefreshedEvent());
+				}
+			});
+			return;
+		}
+		super.retireAll();
 		this.context.publishEvent(new RefreshScopeRefreshedEvent());
+		if (this.parallelInitialization && this.eager && this.registry != null) {
+			getInitializer().initializeAsync(getEagerDependencies());
+		}
+	}
+
+	private synchronized ParallelBeanInitializer getInitializer() {
+		if (this.initializer == null) {
+			this.initializer = new ParallelBeanInitializer(this.context,
+					this.initializationThreads, getName() + "-scope-init-");
+		}
+		return this.initializer;
+	}
+
+	private synchronized Executor getExecutor() {
+		if (this.executor != null) {
+			return this.executor;
+		}
+		if (this.defaultExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+					getName() + "-scope-");
+			threadFactory.setDaemon(true);
+			this.defaultExecutor = Executors.newSingleThreadExecutor(threadFactory);
+		}
+		return this.defaultExecutor;
 	}
 
 	@Override
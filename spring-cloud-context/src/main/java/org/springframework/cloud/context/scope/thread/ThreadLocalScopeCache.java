@@ -18,44 +18,83 @@ package org.springframework.cloud.context.scope.thread;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.springframework.cloud.context.scope.ScopeCache;
 
 /**
+ * A {@link ScopeCache} that keeps a separate map of values for each thread. Each map is
+ * only ever used by its own thread, so it doesn't need to be a concurrent one, and it is
+ * only created when a value is first stored. Clearing the cache drops the map altogether,
+ * so a thread that has finished with its values doesn't hang on to anything.
+ *
  * @author Dave Syer
  * 
  */
 public class ThreadLocalScopeCache implements ScopeCache {
 
-	private ThreadLocal<ConcurrentMap<String, Object>> data = new ThreadLocal<ConcurrentMap<String, Object>>() {
-		protected ConcurrentMap<String, Object> initialValue() {
-			return new ConcurrentHashMap<String, Object>();
-		}
-	};
+	private ThreadLocal<Map<String, Object>> data = new ThreadLocal<Map<String, Object>>();
 
 	public Object remove(String name) {
-		return data.get().remove(name);
+		Map<String, Object> map = data.get();
+		return map == null ? null : map.remove(name);
 	}
 
 	public Collection<Object> clear() {
-		ConcurrentMap<String, Object> map = data.get();
+		Map<String, Object> map = data.get();
+		if (map == null) {
+			return Collections.emptyList();
+		}
 		Collection<Object> values = new ArrayList<Object>(map.values());
-		map.clear();
+		data.remove();
 		return values;
 	}
 
 	public Object get(String name) {
-		return data.get().get(name);
+		Map<String, Object> map = data.get();
+		return map == null ? null : map.get(name);
 	}
 
 	public Object put(String name, Object value) {
-		Object result = data.get().putIfAbsent(name, value);
-		if (result!=null) {
+		Map<String, Object> map = data.get();
+		if (map == null) {
+			map = new HashMap<String, Object>(4);
+			data.set(map);
+		}
+		Object result = map.get(name);
+		if (result != null) {
 			return result;
 		}
+		map.put(name, value);
 		return value;
 	}
 
+	/**
+	 * Take the values away from the current thread, leaving it with an empty cache.
+	 *
+	 * @return the values that were removed (possibly null)
+	 */
+	Map<String, Object> detach() {
+		Map<String, Object> map = data.get();
+		data.remove();
+		return map;
+	}
+
+	/**
+	 * Give the current thread back the values that were {@link #detach() detached}
+	 * earlier, replacing any that it has now.
+	 *
+	 * @param map the values to restore (possibly null)
+	 */
+	void attach(Map<String, Object> map) {
+		if (map == null) {
+			data.remove();
+		}
+		else {
+			data.set(map);
+		}
+	}
+
 }
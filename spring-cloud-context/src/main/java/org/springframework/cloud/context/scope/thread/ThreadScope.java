@@ -13,10 +13,24 @@
 
 package org.springframework.cloud.context.scope.thread;
 
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import org.springframework.cloud.context.scope.GenericScope;
+import org.springframework.cloud.context.scope.ScopeCache;
 
 /**
- * 
+ * A scope that keeps a separate instance of each bean per thread. Threads in a pool live
+ * a long time, so to avoid piling up beans in them (and to make sure their destruction
+ * callbacks run) tasks should be {@link #wrap(Runnable) wrapped}, or the executor
+ * configured with a {@link ThreadScopeTaskDecorator}, so that each task gets its own
+ * beans, which are destroyed when it finishes. Wrapping tasks needs the default
+ * {@link ThreadLocalScopeCache}: with any other {@link #setScopeCache(ScopeCache) cache}
+ * the beans of one task cannot be told apart from the rest of the scope.
+ *
  * @author Dave Syer
  * 
  * @since 3.1
@@ -24,13 +38,106 @@ import org.springframework.cloud.context.scope.GenericScope;
  */
 public class ThreadScope extends GenericScope {
 
+	private static final Log logger = LogFactory.getLog(ThreadScope.class);
+
+	private ThreadLocalScopeCache cache;
+
 	/**
 	 * Create a scope instance and give it the default name: "thread".
 	 */
 	public ThreadScope() {
 		super();
 		super.setName("thread");
-		super.setScopeCache(new ThreadLocalScopeCache());
+		setScopeCache(new ThreadLocalScopeCache());
+	}
+
+	@Override
+	public void setScopeCache(ScopeCache cache) {
+		super.setScopeCache(cache);
+		this.cache = cache instanceof ThreadLocalScopeCache
+				? (ThreadLocalScopeCache) cache : null;
+	}
+
+	/**
+	 * Wrap a task so that it runs with its own thread scoped beans, which are destroyed
+	 * when it finishes. Any beans that the thread running it already had are put back
+	 * afterwards (e.g. if it runs on the caller's thread).
+	 *
+	 * @param task the task to wrap
+	 * @return a wrapped task
+	 * @throws IllegalStateException if the scope is not using a
+	 * {@link ThreadLocalScopeCache}
+	 */
+	public Runnable wrap(final Runnable task) {
+		checkCache();
+		return new Runnable() {
+			@Override
+			public void run() {
+				Map<String, Object> previous = bind();
+				try {
+					task.run();
+				}
+				finally {
+					unbind(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a task so that it runs with its own thread scoped beans, which are destroyed
+	 * when it finishes.
+	 *
+	 * @param task the task to wrap
+	 * @param <T> the type of the result
+	 * @return a wrapped task
+	 * @throws IllegalStateException if the scope is not using a
+	 * {@link ThreadLocalScopeCache}
+	 * @see #wrap(Runnable)
+	 */
+	public <T> Callable<T> wrap(final Callable<T> task) {
+		checkCache();
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Map<String, Object> previous = bind();
+				try {
+					return task.call();
+				}
+				finally {
+					unbind(previous);
+				}
+			}
+		};
+	}
+
+	private void checkCache() {
+		if (this.cache == null) {
+			// Destroying the whole scope when a task finishes would take the beans of
+			// every other thread with it
+			throw new IllegalStateException(
+					"Thread scoped tasks can only be wrapped with a ThreadLocalScopeCache");
+		}
+	}
+
+	private Map<String, Object> bind() {
+		return this.cache.detach();
+	}
+
+	private void unbind(Map<String, Object> previous) {
+		try {
+			// Nobody else can see these beans, so there's no need to lock them
+			Map<String, Object> current = this.cache.detach();
+			if (current != null) {
+				destroyDetached(current.values());
+			}
+		}
+		catch (RuntimeException e) {
+			logger.warn("Failed to destroy thread scoped beans", e);
+		}
+		finally {
+			this.cache.attach(previous);
+		}
 	}
 
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.thread;
+
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * A {@link TaskDecorator} (e.g. for a
+ * {@link org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor}) that gives
+ * each task its own {@link ThreadScope thread scoped} beans, and destroys them when the
+ * task finishes. The scope has to be using a {@link ThreadLocalScopeCache}.
+ *
+ * @see ThreadScope#wrap(Runnable)
+ */
+public class ThreadScopeTaskDecorator implements TaskDecorator {
+
+	private final ThreadScope scope;
+
+	public ThreadScopeTaskDecorator(ThreadScope scope) {
+		this.scope = scope;
+	}
+
+	@Override
+	public Runnable decorate(Runnable runnable) {
+		return this.scope.wrap(runnable);
+	}
+
+}
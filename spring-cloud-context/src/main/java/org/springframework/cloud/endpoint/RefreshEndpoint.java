@@ -23,8 +23,10 @@ import java.util.Set;
 import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.cloud.context.refresh.RefreshResult;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.concurrent.ListenableFuture;
 
 /**
  * @author Dave Syer
@@ -36,17 +38,36 @@ public class RefreshEndpoint extends AbstractEndpoint<Collection<String>> {
 
 	private ContextRefresher contextRefresher;
 
+	/**
+	 * Flag to say that the MVC endpoint should not wait for the refresh to finish on the
+	 * request thread (it responds asynchronously, with the timings of each phase of the
+	 * refresh as well as the keys that changed).
+	 */
+	private boolean async = false;
+
 	public RefreshEndpoint(ContextRefresher contextRefresher) {
 		super("refresh");
 		this.contextRefresher = contextRefresher;
 	}
 
+	public boolean isAsync() {
+		return this.async;
+	}
+
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
 	@ManagedOperation
 	public String[] refresh() {
 		Set<String> keys = contextRefresher.refresh();
 		return keys.toArray(new String[keys.size()]);
 	}
 
+	public ListenableFuture<RefreshResult> refreshAsync() {
+		return this.contextRefresher.refreshAsync();
+	}
+
 	@Override
 	public Collection<String> invoke() {
 		return Arrays.asList(refresh());
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.endpoint;
+
+import org.springframework.cloud.context.refresh.RefreshResult;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * MVC endpoint for the {@link RefreshEndpoint} (on a POST). If the endpoint is
+ * {@link RefreshEndpoint#setAsync(boolean) async} the request thread is released while
+ * the refresh runs, and the response is the full {@link RefreshResult} (keys and phase
+ * timings).
+ */
+public class RefreshMvcEndpoint extends GenericPostableMvcEndpoint {
+
+	private final RefreshEndpoint delegate;
+
+	public RefreshMvcEndpoint(RefreshEndpoint delegate) {
+		super(delegate);
+		this.delegate = delegate;
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	@ResponseBody
+	@Override
+	public Object invoke() {
+		if (!this.delegate.isEnabled() || !this.delegate.isAsync()) {
+			return super.invoke();
+		}
+		final DeferredResult<Object> result = new DeferredResult<>();
+		this.delegate.refreshAsync()
+				.addCallback(new ListenableFutureCallback<RefreshResult>() {
+					@Override
+					public void onSuccess(RefreshResult value) {
+						result.setResult(value);
+					}
+
+					@Override
+					public void onFailure(Throwable ex) {
+						result.setErrorResult(ex);
+					}
+				});
+		return result;
+	}
+
+}
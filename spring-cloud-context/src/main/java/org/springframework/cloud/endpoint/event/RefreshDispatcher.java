@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.endpoint.event;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs refreshes on a background thread, one at a time, on behalf of
+ * {@link RefreshEventListener}. Requests that arrive while a refresh is waiting to start
+ * are coalesced into it (the refresh will see all the changes anyway), and requests that
+ * arrive while one is running are coalesced into a single follow-up refresh. With a
+ * debounce period a refresh waits that long before starting, so a burst of requests
+ * results in a single refresh (the period starts with the first request in the burst, so
+ * a steady stream of requests does not postpone the refresh forever).
+ *
+ * @see RefreshEventListener
+ */
+@ManagedResource
+public class RefreshDispatcher implements DisposableBean {
+
+	private static Log log = LogFactory.getLog(RefreshDispatcher.class);
+
+	private final ContextRefresher refresh;
+
+	private final ScheduledExecutorService executor;
+
+	private final Object monitor = new Object();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private final AtomicLong executed = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private long debounce = 0;
+
+	private boolean pending;
+
+	private boolean running;
+
+	public RefreshDispatcher(ContextRefresher refresh) {
+		this.refresh = refresh;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+				"refresh-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+	}
+
+	/**
+	 * The time to wait (in milliseconds) after a request before starting a refresh, so
+	 * that further requests can be coalesced into it. Default 0.
+	 *
+	 * @param debounce the debounce period to set
+	 */
+	public void setDebounce(long debounce) {
+		this.debounce = debounce;
+	}
+
+	/**
+	 * Ask for a refresh. Returns immediately: the refresh happens later (unless there is
+	 * already one waiting to start, in which case there is nothing to do).
+	 */
+	public void dispatch() {
+		synchronized (this.monitor) {
+			if (this.pending) {
+				this.coalesced.incrementAndGet();
+				return;
+			}
+			this.pending = true;
+			if (!this.running) {
+				schedule();
+			}
+			// Otherwise it is scheduled when the running one finishes
+		}
+	}
+
+	@ManagedAttribute(description = "Number of refresh requests that were merged into another one.")
+	public long getCoalescedCount() {
+		return this.coalesced.get();
+	}
+
+	@ManagedAttribute(description = "Number of refreshes that completed.")
+	public long getExecutedCount() {
+		return this.executed.get();
+	}
+
+	@ManagedAttribute(description = "Number of refreshes that failed.")
+	public long getFailedCount() {
+		return this.failed.get();
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	private void schedule() {
+		try {
+			this.executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					refresh();
+				}
+			}, this.debounce, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			// Shutting down
+			this.pending = false;
+		}
+	}
+
+	private void refresh() {
+		synchronized (this.monitor) {
+			this.pending = false;
+			this.running = true;
+		}
+		try {
+			Set<String> keys = this.refresh.refresh();
+			this.executed.incrementAndGet();
+			log.info("Refresh keys changed: " + keys);
+		}
+		catch (RuntimeException e) {
+			this.failed.incrementAndGet();
+			log.error("Refresh failed", e);
+		}
+		finally {
+			synchronized (this.monitor) {
+				this.running = false;
+				if (this.pending) {
+					schedule();
+				}
+			}
+		}
+	}
+
+}
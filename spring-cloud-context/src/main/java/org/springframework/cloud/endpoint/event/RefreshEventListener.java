@@ -13,17 +13,25 @@ import org.springframework.context.event.EventListener;
 /**
  * Calls {@link RefreshEventListener#refresh} when a {@link RefreshEvent} is received.
  * Only responds to {@link RefreshEvent} after receiving an {@link ApplicationReadyEvent} as the RefreshEvent's might come to early in the application lifecycle.
+ * If there is a {@link RefreshDispatcher} the refresh happens in the background (and
+ * bursts of events are coalesced), otherwise it happens on the thread that publishes the
+ * event.
  * @author Spencer Gibb
  */
 public class RefreshEventListener {
 	private static Log log = LogFactory.getLog(RefreshEventListener.class);
 	private ContextRefresher refresh;
+	private RefreshDispatcher dispatcher;
 	private AtomicBoolean ready = new AtomicBoolean(false);
 
 	public RefreshEventListener(ContextRefresher refresh) {
 		this.refresh = refresh;
 	}
 
+	public RefreshEventListener(RefreshDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
 	@EventListener
 	public void handle(ApplicationReadyEvent event) {
 		this.ready.compareAndSet(false, true);
@@ -33,6 +41,10 @@ public class RefreshEventListener {
 	public void handle(RefreshEvent event) {
 		if (this.ready.get()) { // don't handle events before app is ready
 			log.debug("Event received " + event.getEventDesc());
+			if (this.dispatcher != null) {
+				this.dispatcher.dispatch();
+				return;
+			}
 			Set<String> keys = this.refresh.refresh();
 			log.info("Refresh keys changed: " + keys);
 		}
@@ -15,6 +15,7 @@
  */
 package org.springframework.cloud.logging;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -22,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggerConfiguration;
 import org.springframework.boot.logging.LoggingSystem;
 import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.context.ApplicationListener;
@@ -30,7 +32,12 @@ import org.springframework.core.env.Environment;
 
 /**
  * Listener that looks for {@link EnvironmentChangeEvent} and rebinds logger levels if any
- * changed.
+ * changed. The levels that were applied are remembered, so when the event has the keys
+ * that changed only the loggers with a different level are touched (and nothing at all
+ * happens if no <code>logging.level.*</code> key changed). A logger whose level was
+ * removed from the Environment goes back to the level it had before this listener first
+ * changed it, or inherits its level if that is not known or if it was configured in the
+ * Environment to start with (as it would on a fresh start).
  *
  * @author Dave Syer
  *
@@ -38,38 +45,135 @@ import org.springframework.core.env.Environment;
 public class LoggingRebinder
 		implements ApplicationListener<EnvironmentChangeEvent>, EnvironmentAware {
 
+	private static final String PREFIX = "logging.level.";
+
 	private final Log logger = LogFactory.getLog(getClass());
 
 	private Environment environment;
 
+	/**
+	 * The levels last applied, keyed by logger name (null until the first change).
+	 */
+	private Map<String, String> applied;
+
+	/**
+	 * The levels in the Environment when it was set (already applied on startup).
+	 */
+	private Map<String, String> initial = new HashMap<String, String>();
+
+	/**
+	 * The levels the loggers had before they were first changed here.
+	 */
+	private Map<String, LogLevel> original = new HashMap<String, LogLevel>();
+
 	@Override
 	public void setEnvironment(Environment environment) {
 		this.environment = environment;
+		this.initial = getLevels(environment);
 	}
 
 	@Override
-	public void onApplicationEvent(EnvironmentChangeEvent event) {
+	public synchronized void onApplicationEvent(EnvironmentChangeEvent event) {
 		if (this.environment == null) {
 			return;
 		}
 		LoggingSystem system = LoggingSystem.get(LoggingSystem.class.getClassLoader());
-		setLogLevels(system, this.environment);
+		if (event.getKeys().isEmpty() || event.getKeys().equals(event.getSource())) {
+			// Not sure what changed
+			setLogLevels(system, this.environment);
+			this.applied = getLevels(this.environment);
+			return;
+		}
+		if (!containsLoggingKey(event)) {
+			return;
+		}
+		Map<String, String> levels = getLevels(this.environment);
+		Map<String, String> previous = this.applied == null ? this.initial : this.applied;
+		for (Entry<String, String> entry : levels.entrySet()) {
+			if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+				remember(system, entry.getKey());
+				setLogLevel(system, this.environment, entry.getKey(), entry.getValue());
+			}
+		}
+		for (String name : previous.keySet()) {
+			if (!levels.containsKey(name)) {
+				resetLogLevel(system, name);
+			}
+		}
+		this.applied = levels;
 	}
 
 	protected void setLogLevels(LoggingSystem system, Environment environment) {
 		Map<String, Object> levels = new RelaxedPropertyResolver(environment)
-				.getSubProperties("logging.level.");
+				.getSubProperties(PREFIX);
 		for (Entry<String, Object> entry : levels.entrySet()) {
 			setLogLevel(system, environment, entry.getKey(), entry.getValue().toString());
 		}
 	}
 
+	private boolean containsLoggingKey(EnvironmentChangeEvent event) {
+		for (String key : event.getKeys()) {
+			// Relaxed, so that e.g. LOGGING_LEVEL_ROOT matches as well
+			String normalized = key.toLowerCase().replace("_", ".").replace("-", "");
+			if (normalized.startsWith(PREFIX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Map<String, String> getLevels(Environment environment) {
+		Map<String, String> result = new HashMap<String, String>();
+		for (Entry<String, Object> entry : new RelaxedPropertyResolver(environment)
+				.getSubProperties(PREFIX).entrySet()) {
+			result.put(entry.getKey(), String.valueOf(entry.getValue()));
+		}
+		return result;
+	}
+
+	private void remember(LoggingSystem system, String name) {
+		if (this.original.containsKey(name)) {
+			return;
+		}
+		if (this.initial.containsKey(name)) {
+			// The level came from the Environment, so without it the logger inherits
+			this.original.put(name, null);
+			return;
+		}
+		try {
+			LoggerConfiguration configuration = system
+					.getLoggerConfiguration(loggerName(name));
+			this.original.put(name,
+					configuration == null ? null : configuration.getConfiguredLevel());
+		}
+		catch (UnsupportedOperationException ex) {
+			this.original.put(name, null);
+		}
+	}
+
+	private void resetLogLevel(LoggingSystem system, String name) {
+		LogLevel level = this.original.remove(name);
+		String loggerName = loggerName(name);
+		if (level == null && loggerName == null) {
+			// The root logger has to have a level
+			level = LogLevel.INFO;
+		}
+		try {
+			system.setLogLevel(loggerName, level);
+		}
+		catch (RuntimeException ex) {
+			this.logger.error("Cannot reset level for '" + name + "'");
+		}
+	}
+
+	private String loggerName(String name) {
+		return name.equalsIgnoreCase("root") ? null : name;
+	}
+
 	private void setLogLevel(LoggingSystem system, Environment environment, String name,
 			String level) {
 		try {
-			if (name.equalsIgnoreCase("root")) {
-				name = null;
-			}
+			name = loggerName(name);
 			level = environment.resolvePlaceholders(level);
 			system.setLogLevel(name, LogLevel.valueOf(level.toUpperCase()));
 		}
@@ -6,6 +6,7 @@ import org.junit.Test;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.test.rule.OutputCapture;
+import org.springframework.cloud.endpoint.event.RefreshDispatcher;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Configuration;
 
@@ -37,6 +38,25 @@ public class RefreshAutoConfigurationTests {
 		}
 	}
 
+	@Test
+	public void stripedLocks() {
+		try (ConfigurableApplicationContext context = getApplicationContext(false,
+				Config.class, "spring.cloud.refresh.striped-locks:true")) {
+			assertThat(context.getBeanFactory().getBeanDefinition("refreshScope")
+					.getPropertyValues().getPropertyValue("stripedLocks").getValue())
+							.isEqualTo(true);
+		}
+	}
+
+	@Test
+	public void asyncEvents() {
+		try (ConfigurableApplicationContext context = getApplicationContext(false,
+				Config.class, "spring.cloud.refresh.async-events:true",
+				"spring.cloud.refresh.event-debounce:100")) {
+			assertThat(context.getBeansOfType(RefreshDispatcher.class)).hasSize(1);
+		}
+	}
+
 	private static ConfigurableApplicationContext getApplicationContext(
 			boolean web, Class<?> configuration, String... properties) {
 		return new SpringApplicationBuilder(configuration).web(web).properties(properties).run();
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class PropertySourceBootstrapConfigurationTests {
+
+	private StandardEnvironment environment = new StandardEnvironment();
+
+	private PropertySourceBootstrapConfiguration initializer = new PropertySourceBootstrapConfiguration();
+
+	private StaticApplicationContext context = new StaticApplicationContext();
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@After
+	public void close() {
+		this.context.close();
+	}
+
+	@Test
+	public void sequentialTimings() {
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0), new TestLocator("two", 2, 0)));
+		CompositePropertySource composite = this.initializer.locate(this.environment);
+		assertThat(names(composite)).containsExactly("one", "two");
+		assertThat(this.initializer.getTimings()).containsOnlyKeys(
+				TestLocator.class.getName(), TestLocator.class.getName() + "#1");
+	}
+
+	@Test
+	public void parallelKeepsOrder() {
+		EnvironmentTestUtils.addEnvironment(this.environment,
+				"spring.cloud.bootstrap.locators.parallel:true");
+		// The slowest has the highest precedence
+		this.initializer.setPropertySourceLocators(
+				Arrays.<PropertySourceLocator>asList(new TestLocator("three", 3, 0),
+						new TestLocator("one", 1, 300), new TestLocator("two", 2, 0)));
+		long start = System.currentTimeMillis();
+		CompositePropertySource composite = this.initializer.locate(this.environment);
+		assertThat(System.currentTimeMillis() - start).isLessThan(600);
+		assertThat(names(composite)).containsExactly("one", "two", "three");
+		assertThat(this.environment.getProperty("name")).isEqualTo("one");
+		assertThat(this.initializer.getTimings()).hasSize(3);
+		assertThat(this.initializer.getTimings().get(TestLocator.class.getName()))
+				.isGreaterThanOrEqualTo(300L);
+	}
+
+	@Test
+	public void parallelTimeoutSkipped() {
+		EnvironmentTestUtils.addEnvironment(this.environment,
+				"spring.cloud.bootstrap.locators.parallel:true",
+				"spring.cloud.bootstrap.locators.timeout:100",
+				"spring.cloud.bootstrap.locators.timeout-policy:skip");
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 5000), new TestLocator("two", 2, 0)));
+		CompositePropertySource composite = this.initializer.locate(this.environment);
+		assertThat(names(composite)).containsExactly("two");
+		assertThat(this.initializer.getTimings()).hasSize(1);
+	}
+
+	@Test
+	public void parallelTimeoutFails() {
+		EnvironmentTestUtils.addEnvironment(this.environment,
+				"spring.cloud.bootstrap.locators.parallel:true",
+				"spring.cloud.bootstrap.locators.timeout:100");
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0), new TestLocator("two", 2, 5000)));
+		try {
+			this.initializer.locate(this.environment);
+			fail("Expected timeout");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("did not complete within 100ms");
+		}
+		assertThat(this.environment.getPropertySources().contains(
+				PropertySourceBootstrapConfiguration.BOOTSTRAP_PROPERTY_SOURCE_NAME))
+						.isFalse();
+	}
+
+	@Test
+	public void parallelTimeoutPerLocator() {
+		EnvironmentTestUtils.addEnvironment(this.environment,
+				"spring.cloud.bootstrap.locators.parallel:true",
+				"spring.cloud.bootstrap.locators.max-threads:1",
+				"spring.cloud.bootstrap.locators.timeout:1000");
+		// Together they take longer than the timeout, but each is well within it
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 400), new TestLocator("two", 2, 400),
+				new TestLocator("three", 3, 400)));
+		CompositePropertySource composite = this.initializer.locate(this.environment);
+		assertThat(names(composite)).containsExactly("one", "two", "three");
+	}
+
+	@Test
+	public void parallelFailurePropagated() {
+		EnvironmentTestUtils.addEnvironment(this.environment,
+				"spring.cloud.bootstrap.locators.parallel:true");
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0), new TestLocator(null, 2, 0)));
+		try {
+			this.initializer.locate(this.environment);
+			fail("Expected failure");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).isEqualTo("Planned");
+		}
+	}
+
+	@Test
+	public void snapshotUsedWhenLocatorsFail() throws Exception {
+		File file = new File(this.temp.getRoot(), "snapshot/bootstrap.snapshot");
+		String location = "spring.cloud.bootstrap.snapshot.location:" + file;
+		EnvironmentTestUtils.addEnvironment(this.context, location);
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0, "{cipher}abc")));
+		this.initializer.initialize(this.context);
+		assertThat(file).exists();
+		StaticApplicationContext context = new StaticApplicationContext();
+		try {
+			EnvironmentTestUtils.addEnvironment(context, location);
+			this.initializer.setPropertySourceLocators(Arrays
+					.<PropertySourceLocator>asList(new TestLocator(null, 1, 0)));
+			this.initializer.initialize(context);
+			// Still encrypted
+			assertThat(context.getEnvironment().getProperty("name"))
+					.isEqualTo("{cipher}abc");
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	@Test
+	public void snapshotWrittenByReload() throws Exception {
+		File file = new File(this.temp.getRoot(), "bootstrap.snapshot");
+		EnvironmentTestUtils.addEnvironment(this.environment,
+				"spring.cloud.bootstrap.snapshot.location:" + file);
+		this.initializer.setPropertySourceLocators(Arrays
+				.<PropertySourceLocator>asList(new TestLocator("one", 1, 0, "reloaded")));
+		this.initializer.locate(this.environment);
+		assertThat(new PropertySourceSnapshot(file, false).read().get(0)
+				.getProperty("name")).isEqualTo("reloaded");
+	}
+
+	@Test
+	public void snapshotNotUsedWithoutLocation() {
+		this.initializer.setPropertySourceLocators(Arrays
+				.<PropertySourceLocator>asList(new TestLocator(null, 1, 0)));
+		try {
+			this.initializer.initialize(this.context);
+			fail("Expected failure");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).isEqualTo("Planned");
+		}
+	}
+
+	@Test
+	public void eagerSnapshotReconciled() throws Exception {
+		File file = this.temp.newFile("bootstrap.snapshot");
+		new PropertySourceSnapshot(file, true).write(Collections
+				.<PropertySource<?>>singletonList(new MapPropertySource("one",
+						Collections.<String, Object>singletonMap("name", "old"))));
+		EnvironmentTestUtils.addEnvironment(this.context,
+				"spring.cloud.bootstrap.snapshot.location:" + file,
+				"spring.cloud.bootstrap.snapshot.mode:eager");
+		this.initializer.setPropertySourceLocators(Arrays
+				.<PropertySourceLocator>asList(new TestLocator("one", 1, 200, "new")));
+		this.initializer.initialize(this.context);
+		// Served from the snapshot without waiting for the locator
+		assertThat(this.context.getEnvironment().getProperty("name")).isEqualTo("old");
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<Set<String>> keys = new ArrayList<>();
+		this.context.addApplicationListener(
+				new ApplicationListener<EnvironmentChangeEvent>() {
+					@Override
+					public void onApplicationEvent(EnvironmentChangeEvent event) {
+						keys.add(event.getKeys());
+						latch.countDown();
+					}
+				});
+		this.context.refresh();
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(keys.get(0)).containsExactly("name");
+		assertThat(this.context.getEnvironment().getProperty("name")).isEqualTo("new");
+		assertThat(new PropertySourceSnapshot(file, true).read().get(0)
+				.getProperty("name")).isEqualTo("new");
+	}
+
+	@Test
+	public void deferredLocatorCalledWhenReady() throws Exception {
+		DeferredTestLocator deferred = new DeferredTestLocator("two", 0);
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0), deferred));
+		this.initializer.initialize(this.context);
+		assertThat(this.context.getEnvironment().getProperty("name")).isEqualTo("one");
+		assertThat(deferred.called).isFalse();
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.context.addApplicationListener(
+				new ApplicationListener<EnvironmentChangeEvent>() {
+					@Override
+					public void onApplicationEvent(EnvironmentChangeEvent event) {
+						latch.countDown();
+					}
+				});
+		this.context.refresh();
+		this.context.publishEvent(new ApplicationReadyEvent(new SpringApplication(),
+				new String[0], this.context));
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		// The deferred source has higher precedence
+		assertThat(this.context.getEnvironment().getProperty("name")).isEqualTo("two");
+		CompositePropertySource composite = (CompositePropertySource) this.context
+				.getEnvironment().getPropertySources()
+				.get(PropertySourceBootstrapConfiguration.BOOTSTRAP_PROPERTY_SOURCE_NAME);
+		assertThat(names(composite)).containsExactly("two", "one");
+		assertThat(this.initializer.getTimings()).hasSize(2);
+	}
+
+	@Test
+	public void deferredLocatorAppliedThroughRefresher() throws Exception {
+		RefreshScope scope = Mockito.mock(RefreshScope.class);
+		ContextRefresher refresher = new ContextRefresher(this.context, scope);
+		this.context.getBeanFactory().registerSingleton("refresher", refresher);
+		DeferredTestLocator deferred = new DeferredTestLocator("two", 0);
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0), deferred));
+		this.initializer.initialize(this.context);
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.context.addApplicationListener(
+				new ApplicationListener<EnvironmentChangeEvent>() {
+					@Override
+					public void onApplicationEvent(EnvironmentChangeEvent event) {
+						latch.countDown();
+					}
+				});
+		this.context.refresh();
+		synchronized (refresher) {
+			// As if a refresh was running
+			this.context.publishEvent(new ApplicationReadyEvent(
+					new SpringApplication(), new String[0], this.context));
+			assertThat(latch.await(200, TimeUnit.MILLISECONDS)).isFalse();
+			assertThat(deferred.called).isTrue();
+			assertThat(this.context.getEnvironment().getProperty("name"))
+					.isEqualTo("one");
+		}
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(this.context.getEnvironment().getProperty("name")).isEqualTo("two");
+		// Just after the event, on the background thread
+		Mockito.verify(scope, Mockito.timeout(5000)).refreshAll();
+	}
+
+	@Test
+	public void deferredLocatorNotDeferredInRefresh() {
+		this.context.getEnvironment().getPropertySources()
+				.addFirst(new MapPropertySource(
+						ContextRefresher.REFRESH_ARGS_PROPERTY_SOURCE,
+						Collections.<String, Object>emptyMap()));
+		this.initializer.setPropertySourceLocators(Arrays.<PropertySourceLocator>asList(
+				new TestLocator("one", 1, 0), new DeferredTestLocator("two", 0)));
+		this.initializer.initialize(this.context);
+		assertThat(this.context.getEnvironment().getProperty("name")).isEqualTo("two");
+	}
+
+	private List<String> names(CompositePropertySource composite) {
+		List<String> names = new ArrayList<>();
+		for (PropertySource<?> source : composite.getPropertySources()) {
+			names.add(source.getName());
+		}
+		return names;
+	}
+
+	private static class TestLocator implements PropertySourceLocator, Ordered {
+
+		private final String name;
+
+		private final int order;
+
+		private final long delay;
+
+		private final String value;
+
+		TestLocator(String name, int order, long delay) {
+			this(name, order, delay, name);
+		}
+
+		TestLocator(String name, int order, long delay, String value) {
+			this.name = name;
+			this.order = order;
+			this.delay = delay;
+			this.value = value;
+		}
+
+		@Override
+		public int getOrder() {
+			return this.order;
+		}
+
+		@Override
+		public PropertySource<?> locate(Environment environment) {
+			if (this.name == null) {
+				throw new IllegalStateException("Planned");
+			}
+			try {
+				Thread.sleep(this.delay);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			return new MapPropertySource(this.name,
+					Collections.<String, Object>singletonMap("name", this.value));
+		}
+
+	}
+
+	private static class DeferredTestLocator extends TestLocator
+			implements DeferredPropertySourceLocator {
+
+		private volatile boolean called;
+
+		DeferredTestLocator(String name, int order) {
+			super(name, order, 0);
+		}
+
+		@Override
+		public PropertySource<?> locate(Environment environment) {
+			this.called = true;
+			return super.locate(environment);
+		}
+
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.config;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PropertySourceSnapshotTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void structureAndValuesKept() throws Exception {
+		File file = new File(this.temp.getRoot(), "bootstrap.snapshot");
+		PropertySourceSnapshot snapshot = new PropertySourceSnapshot(file, false);
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("foo.items[0]", "one");
+		map.put("foo.count", 5);
+		map.put("foo.secret", "{cipher}abc");
+		CompositePropertySource composite = new CompositePropertySource("remote");
+		composite.addPropertySource(new MapPropertySource("app", map));
+		composite.addPropertySource(new MapPropertySource("default",
+				Collections.<String, Object>singletonMap("foo.count", "1")));
+		assertThat(snapshot.write(Arrays.<PropertySource<?>>asList(composite,
+				new MapPropertySource("other",
+						Collections.<String, Object>singletonMap("bar", "spam")))))
+								.isTrue();
+		List<PropertySource<?>> sources = snapshot.read();
+		assertThat(sources).hasSize(2);
+		assertThat(sources.get(0)).isInstanceOf(CompositePropertySource.class);
+		CompositePropertySource result = (CompositePropertySource) sources.get(0);
+		assertThat(result.getName()).isEqualTo("remote");
+		assertThat(result.getPropertySources()).hasSize(2);
+		assertThat(result.getPropertyNames()).containsOnly("foo.items[0]", "foo.count",
+				"foo.secret");
+		assertThat(result.getProperty("foo.count")).isEqualTo("5");
+		assertThat(result.getProperty("foo.secret")).isEqualTo("{cipher}abc");
+		assertThat(sources.get(1).getProperty("bar")).isEqualTo("spam");
+	}
+
+	@Test
+	public void notEnumerableNotWritten() {
+		File file = new File(this.temp.getRoot(), "bootstrap.snapshot");
+		PropertySourceSnapshot snapshot = new PropertySourceSnapshot(file, false);
+		PropertySource<?> source = new PropertySource<Object>("random") {
+			@Override
+			public Object getProperty(String name) {
+				return null;
+			}
+		};
+		assertThat(snapshot.write(Collections.<PropertySource<?>>singletonList(source)))
+				.isFalse();
+		assertThat(file).doesNotExist();
+		assertThat(snapshot.read()).isNull();
+	}
+
+	@Test
+	public void corruptSnapshotIgnored() throws Exception {
+		File file = this.temp.newFile("bootstrap.snapshot");
+		Files.write(file.toPath(), "foo=bar".getBytes());
+		assertThat(new PropertySourceSnapshot(file, false).read()).isNull();
+	}
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.bootstrap.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.bootstrap.BootstrapConfiguration;
+import org.springframework.cloud.bootstrap.config.PropertySourceBootstrapConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.FileCopyUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BootstrapIndexProcessorTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void indexSameAsRuntime() throws Exception {
+		Properties index = compile();
+		List<Class<?>> expected = new ArrayList<>();
+		for (String name : SpringFactoriesLoader.loadFactoryNames(
+				BootstrapConfiguration.class, getClass().getClassLoader())) {
+			expected.add(ClassUtils.resolveClassName(name, null));
+		}
+		AnnotationAwareOrderComparator.sort(expected);
+		List<String> names = new ArrayList<>();
+		for (Class<?> type : expected) {
+			names.add(type.getName());
+		}
+		assertThat(names).contains(PropertySourceBootstrapConfiguration.class.getName());
+		assertThat(index.getProperty(BootstrapConfiguration.class.getName()))
+				.isEqualTo(join(names));
+		// No implementations, but still indexed
+		assertThat(index.getProperty(
+				"org.springframework.cloud.client.discovery.EnableDiscoveryClient"))
+						.isEmpty();
+		assertThat(index.getProperty(BootstrapIndex.FACTORIES_LOCATION))
+				.isEqualTo(join(BootstrapIndex.getSourceNames(getClass().getClassLoader()
+						.getResources(BootstrapIndex.FACTORIES_LOCATION))));
+	}
+
+	@Test
+	public void customKeys() throws Exception {
+		Properties index = compile("-Aspring.cloud.index.keys="
+				+ "org.springframework.context.ApplicationListener");
+		assertThat(index).containsOnlyKeys(BootstrapIndex.FACTORIES_LOCATION,
+				"org.springframework.context.ApplicationListener");
+		assertThat(index.getProperty("org.springframework.context.ApplicationListener"))
+				.contains("org.springframework.cloud.bootstrap.BootstrapApplicationListener");
+	}
+
+	@Test
+	public void indexLoaded() throws Exception {
+		File folder = this.temp.newFolder();
+		writeIndex(folder, BootstrapIndex.FACTORIES_LOCATION + "=\n"
+				+ BootstrapConfiguration.class.getName() + "=foo.Bar, spam.Baz\n"
+				+ "empty=\n");
+		ClassLoader classLoader = new URLClassLoader(new URL[] { folder.toURI().toURL() },
+				null);
+		BootstrapIndex index = BootstrapIndex.load(classLoader);
+		assertThat(index).isSameAs(BootstrapIndex.load(classLoader));
+		assertThat(index.getNames(BootstrapConfiguration.class))
+				.containsExactly("foo.Bar", "spam.Baz");
+		assertThat(index.getNames(Object.class)).isNull();
+		assertThat(BootstrapIndex.load(new URLClassLoader(new URL[0], null))).isNull();
+	}
+
+	@Test
+	public void compiledIndexLoaded() throws Exception {
+		compile();
+		ClassLoader classLoader = new URLClassLoader(
+				new URL[] { new File(this.temp.getRoot(), "output").toURI().toURL() },
+				getClass().getClassLoader());
+		assertThat(BootstrapIndex.load(classLoader)).isNotNull();
+	}
+
+	@Test
+	public void indexIgnoredWhenFactoriesDifferent() throws Exception {
+		File folder = this.temp.newFolder();
+		writeIndex(folder, BootstrapIndex.FACTORIES_LOCATION + "=foo-1.0.jar\n"
+				+ BootstrapConfiguration.class.getName() + "=foo.Bar\n");
+		assertThat(BootstrapIndex.load(
+				new URLClassLoader(new URL[] { folder.toURI().toURL() }, null)))
+						.isNull();
+	}
+
+	@Test
+	public void indexIgnoredWithoutFactories() throws Exception {
+		File folder = this.temp.newFolder();
+		writeIndex(folder, BootstrapConfiguration.class.getName() + "=foo.Bar\n");
+		assertThat(BootstrapIndex.load(
+				new URLClassLoader(new URL[] { folder.toURI().toURL() }, null)))
+						.isNull();
+	}
+
+	@Test
+	public void indexIgnoredWhenMoreThanOne() throws Exception {
+		File application = this.temp.newFolder();
+		writeIndex(application, BootstrapIndex.FACTORIES_LOCATION + "=\n"
+				+ BootstrapConfiguration.class.getName() + "=foo.Bar\n");
+		File library = this.temp.newFolder();
+		writeIndex(library, BootstrapIndex.FACTORIES_LOCATION + "=\n"
+				+ BootstrapConfiguration.class.getName() + "=spam.Baz\n");
+		assertThat(BootstrapIndex.load(new URLClassLoader(new URL[] {
+				application.toURI().toURL(), library.toURI().toURL() }, null)))
+						.isNull();
+	}
+
+	@Test
+	public void sourceNames() throws Exception {
+		assertThat(BootstrapIndex.getSourceName(new URL(
+				"jar:file:/repo/foo-1.0.jar!/META-INF/spring.factories")))
+						.isEqualTo("foo-1.0.jar");
+		assertThat(BootstrapIndex.getSourceName(new URL(
+				"jar:file:/app.jar!/BOOT-INF/lib/foo-1.0.jar!/META-INF/spring.factories")))
+						.isEqualTo("foo-1.0.jar");
+		assertThat(BootstrapIndex.getSourceName(new URL(
+				"jar:file:/app.jar!/BOOT-INF/classes!/META-INF/spring.factories")))
+						.isEqualTo("classes");
+		assertThat(BootstrapIndex.getSourceName(
+				new URL("file:/app/target/classes/META-INF/spring.factories")))
+						.isEqualTo("classes");
+	}
+
+	@Test
+	public void bootstrapUsesIndex() throws Exception {
+		ClassLoader original = Thread.currentThread().getContextClassLoader();
+		File folder = this.temp.newFolder();
+		writeIndex(folder, BootstrapIndex.FACTORIES_LOCATION + "="
+				+ join(BootstrapIndex.getSourceNames(
+						original.getResources(BootstrapIndex.FACTORIES_LOCATION)))
+				+ "\n" + BootstrapConfiguration.class.getName() + "="
+				+ PropertySourceBootstrapConfiguration.class.getName() + "\n");
+		Thread.currentThread().setContextClassLoader(
+				new URLClassLoader(new URL[] { folder.toURI().toURL() }, original));
+		try {
+			assertThat(bootstrap().containsBean("fooDuringBootstrap")).isFalse();
+			assertThat(bootstrap("--spring.cloud.index.enabled=false")
+					.containsBean("fooDuringBootstrap")).isTrue();
+		}
+		finally {
+			Thread.currentThread().setContextClassLoader(original);
+		}
+	}
+
+	private void writeIndex(File folder, String content) throws IOException {
+		File file = new File(folder, BootstrapIndex.INDEX_LOCATION);
+		file.getParentFile().mkdirs();
+		FileCopyUtils.copy(content.getBytes(), file);
+	}
+
+	private ApplicationContext bootstrap(String... args) {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(
+				EmptyConfiguration.class).web(false).run(args);
+		try {
+			return context.getParent();
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	private Properties compile(String... options) throws IOException {
+		File source = this.temp.newFile("Sample.java");
+		FileCopyUtils.copy("public class Sample {}".getBytes(), source);
+		File output = this.temp.newFolder("output");
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		StandardJavaFileManager files = compiler.getStandardFileManager(null, null,
+				null);
+		List<String> arguments = new ArrayList<>(Arrays.asList("-d",
+				output.getAbsolutePath(), "-proc:only"));
+		arguments.addAll(Arrays.asList(options));
+		CompilationTask task = compiler.getTask(null, files, null, arguments, null,
+				files.getJavaFileObjects(source));
+		task.setProcessors(Collections.singletonList(new BootstrapIndexProcessor()));
+		assertThat(task.call()).isTrue();
+		files.close();
+		Properties properties = new Properties();
+		try (InputStream stream = new FileInputStream(
+				new File(output, BootstrapIndex.INDEX_LOCATION))) {
+			properties.load(stream);
+		}
+		return properties;
+	}
+
+	private String join(List<String> names) {
+		StringBuilder builder = new StringBuilder();
+		for (String name : names) {
+			builder.append(builder.length() > 0 ? "," : "").append(name);
+		}
+		return builder.toString();
+	}
+
+	@Configuration
+	protected static class EmptyConfiguration {
+
+	}
+
+}
@@ -66,6 +66,18 @@ public class EnvironmentManagerIntegrationTests {
 		assertEquals("Foo", properties.getMessage());
 	}
 
+	@Test
+	public void testBatchAndRemove() throws Exception {
+		this.mvc.perform(post("/env").param("message", "Foo").param("delay", "5"))
+				.andExpect(status().isOk());
+		assertEquals("Foo", properties.getMessage());
+		assertEquals(5, properties.getDelay());
+		this.mvc.perform(post("/env/remove").param("name", "message", "delay"))
+				.andExpect(status().isOk())
+				.andExpect(content().string("{\"message\":\"Foo\",\"delay\":\"5\"}"));
+		assertEquals("Hello scope!", properties.getMessage());
+	}
+
 	@Test
 	public void testRefreshFails() throws Exception {
 		try {
@@ -1,10 +1,16 @@
 package org.springframework.cloud.context.environment;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.MapPropertySource;
 import org.springframework.mock.env.MockEnvironment;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -42,4 +48,79 @@ public class EnvironmentManagerTest {
 		assertThat(event.getKeys()).containsExactly("foo");
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testBatchPublishesOneEvent() {
+		MockEnvironment environment = new MockEnvironment();
+		environment.setProperty("spam", "bucket");
+		ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+		EnvironmentManager environmentManager = new EnvironmentManager(environment);
+		environmentManager.setApplicationEventPublisher(publisher);
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("foo", "bar");
+		properties.put("bar", "foo");
+		properties.put("spam", "bucket");
+		assertThat(environmentManager.setProperties(properties))
+				.containsExactly("foo", "bar");
+
+		assertThat(environment.getProperty("foo")).isEqualTo("bar");
+		assertThat(environment.getProperty("bar")).isEqualTo("foo");
+		ArgumentCaptor<ApplicationEvent> eventCaptor = ArgumentCaptor
+				.forClass(ApplicationEvent.class);
+		verify(publisher, times(1)).publishEvent(eventCaptor.capture());
+		EnvironmentChangeEvent event = (EnvironmentChangeEvent) eventCaptor.getValue();
+		assertThat(event.getKeys()).containsExactly("foo", "bar");
+
+		reset(publisher);
+
+		assertThat(environmentManager
+				.removeProperties(Arrays.asList("foo", "bar", "spam")))
+						.containsOnlyKeys("foo", "bar");
+		assertThat(environment.getProperty("foo")).isNull();
+		assertThat(environment.getProperty("spam")).isEqualTo("bucket");
+		verify(publisher, times(1)).publishEvent(eventCaptor.capture());
+		event = (EnvironmentChangeEvent) eventCaptor.getValue();
+		assertThat(event.getKeys()).containsExactly("foo", "bar");
+
+		reset(publisher);
+
+		assertThat(environmentManager.removeProperties(Arrays.asList("foo"))).isEmpty();
+		verify(publisher, times(0)).publishEvent(eventCaptor.capture());
+	}
+
+	@Test
+	public void testSecondManagerSharesProperties() {
+		MockEnvironment environment = new MockEnvironment();
+		EnvironmentManager first = new EnvironmentManager(environment);
+		first.setApplicationEventPublisher(mock(ApplicationEventPublisher.class));
+		first.setProperty("foo", "bar");
+		EnvironmentManager second = new EnvironmentManager(environment);
+		second.setApplicationEventPublisher(mock(ApplicationEventPublisher.class));
+
+		first.setProperty("foo", "spam");
+		assertThat(environment.getProperty("foo")).isEqualTo("spam");
+		second.setProperty("bar", "foo");
+		assertThat(first.reset()).containsOnlyKeys("foo", "bar");
+		assertThat(environment.getProperty("foo")).isNull();
+		assertThat(environment.getProperty("bar")).isNull();
+	}
+
+	@Test
+	public void testOtherSynchronizedMapNotShared() {
+		MockEnvironment environment = new MockEnvironment();
+		Map<String, Object> map = Collections
+				.synchronizedMap(new LinkedHashMap<String, Object>());
+		map.put("foo", "bar");
+		environment.getPropertySources()
+				.addFirst(new MapPropertySource("manager", map));
+		EnvironmentManager manager = new EnvironmentManager(environment);
+		manager.setApplicationEventPublisher(mock(ApplicationEventPublisher.class));
+
+		assertThat(environment.getProperty("foo")).isEqualTo("bar");
+		manager.setProperty("bar", "foo");
+		assertThat(manager.reset()).containsOnlyKeys("foo", "bar");
+		assertThat(map).containsOnlyKeys("foo");
+		assertThat(environment.getProperty("foo")).isNull();
+	}
+
+}
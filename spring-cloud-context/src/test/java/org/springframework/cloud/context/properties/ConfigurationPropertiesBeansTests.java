@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.properties;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.support.StaticApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConfigurationPropertiesBeansTests {
+
+	private StaticApplicationContext parent = new StaticApplicationContext();
+
+	private StaticApplicationContext child = new StaticApplicationContext(this.parent);
+
+	@After
+	public void close() {
+		this.child.close();
+		this.parent.close();
+	}
+
+	@Test
+	public void childDelegatesToParent() {
+		ConfigurationPropertiesBeans parentBeans = create(this.parent);
+		parentBeans.postProcessBeforeInitialization(new FooProperties(), "foo");
+		ConfigurationPropertiesBeans childBeans = create(this.child);
+		childBeans.postProcessBeforeInitialization(new BarProperties(), "bar");
+		childBeans.postProcessBeforeInitialization(new Object(), "other");
+		// Registered in the parent after the child was created
+		parentBeans.postProcessBeforeInitialization(new BarProperties(), "spam");
+		assertThat(childBeans.getBeanNames()).containsOnly("foo", "bar", "spam");
+		assertThat(parentBeans.getBeanNames()).containsOnly("foo", "spam");
+		assertThat(childBeans.containsBean("spam")).isTrue();
+		assertThat(childBeans.getPrefix("foo")).isEqualTo("foo");
+		assertThat(childBeans.getBeanNames(Collections.singleton("bar.name")))
+				.containsOnly("bar", "spam");
+		assertThat(childBeans.getBeanNames(Arrays.asList("foo.name", "bar.name")))
+				.containsOnly("foo", "bar", "spam");
+		assertThat(childBeans.getBeanNames(Collections.singleton("FOO_NAME")))
+				.containsOnly("foo", "bar", "spam");
+	}
+
+	@Test
+	public void reinitializedBeanReplaced() {
+		ConfigurationPropertiesBeans beans = create(this.parent);
+		beans.postProcessBeforeInitialization(new FooProperties(), "foo");
+		FooProperties foo = new FooProperties();
+		beans.postProcessBeforeInitialization(foo, "foo");
+		assertThat(beans.getBeanNames()).containsOnly("foo");
+		assertThat(beans.getBeanNames(Collections.singleton("foo.name")))
+				.containsOnly("foo");
+	}
+
+	private ConfigurationPropertiesBeans create(StaticApplicationContext context) {
+		context.registerSingleton("configurationPropertiesBeans",
+				ConfigurationPropertiesBeans.class);
+		context.refresh();
+		return context.getBean(ConfigurationPropertiesBeans.class);
+	}
+
+	@ConfigurationProperties("foo")
+	protected static class FooProperties {
+
+	}
+
+	@ConfigurationProperties("bar")
+	protected static class BarProperties {
+
+	}
+
+}
@@ -15,6 +15,8 @@
  */
 package org.springframework.cloud.context.properties;
 
+import java.util.Collections;
+
 import javax.annotation.PostConstruct;
 
 import org.junit.Test;
@@ -29,16 +31,21 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.util.EnvironmentTestUtils;
 import org.springframework.cloud.autoconfigure.ConfigurationPropertiesRebinderAutoConfiguration;
 import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.cloud.context.properties.ConfigurationPropertiesRebinderIntegrationTests.TestConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = TestConfiguration.class)
@@ -51,9 +58,18 @@ public class ConfigurationPropertiesRebinderIntegrationTests {
 	@Autowired
 	private ConfigProperties config;
 
+	@Autowired
+	private OtherProperties other;
+
+	@Autowired
+	private OuterProperties outer;
+
 	@Autowired
 	private ConfigurationPropertiesRebinder rebinder;
 
+	@Autowired
+	private ApplicationContext context;
+
 	@Autowired
 	private ConfigurableEnvironment environment;
 
@@ -106,6 +122,54 @@ public class ConfigurationPropertiesRebinderIntegrationTests {
 		assertEquals(2, this.properties.getCount());
 	}
 
+	@Test
+	@DirtiesContext
+	public void testRefreshOnlyMatchingPrefix() throws Exception {
+		assertEquals("main", this.config.getName());
+		assertEquals(1, this.other.getCount());
+		EnvironmentTestUtils.addEnvironment(this.environment, "config.name=foo",
+				"other.name=bar");
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.singleton("config.name")));
+		assertEquals("foo", this.config.getName());
+		assertEquals(1, this.other.getCount());
+		assertNull(this.other.getName());
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.singleton("other.name")));
+		assertEquals(2, this.other.getCount());
+		assertEquals("bar", this.other.getName());
+	}
+
+	@Test
+	@DirtiesContext
+	public void testRefreshAllForUnknownKey() throws Exception {
+		assertEquals(1, this.other.getCount());
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.singleton("OTHER_NAME")));
+		assertEquals(2, this.other.getCount());
+	}
+
+	@Test
+	@DirtiesContext
+	public void testNothingRefreshedForNoKeys() throws Exception {
+		assertEquals(1, this.other.getCount());
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.<String>emptySet()));
+		assertEquals(1, this.other.getCount());
+	}
+
+	@Test
+	@DirtiesContext
+	public void testLazyBeanCreatedDuringRebindSeesAllProperties() throws Exception {
+		assertNull(this.outer.getInner());
+		EnvironmentTestUtils.addEnvironment(this.environment, "outer.name=foo",
+				"inner.name=bar");
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.singleton("outer.name")));
+		assertEquals("foo", this.outer.getName());
+		assertEquals("bar", this.outer.getInner().getName());
+	}
+
 	@Configuration
 	@EnableConfigurationProperties
 	@Import({ RefreshConfiguration.RebinderConfiguration.class,
@@ -117,6 +181,22 @@ public class ConfigurationPropertiesRebinderIntegrationTests {
 			return new TestProperties();
 		}
 
+		@Bean
+		protected OtherProperties other() {
+			return new OtherProperties();
+		}
+
+		@Bean
+		protected OuterProperties outer() {
+			return new OuterProperties();
+		}
+
+		@Bean
+		@Lazy
+		protected InnerProperties inner() {
+			return new InnerProperties();
+		}
+
 	}
 
 	// Hack out a protected inner class for testing
@@ -160,6 +240,75 @@ public class ConfigurationPropertiesRebinderIntegrationTests {
 		}
 	}
 
+	@ConfigurationProperties("other")
+	protected static class OtherProperties {
+		private String name;
+		private int count = 0;
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		@PostConstruct
+		public void init() {
+			this.count++;
+		}
+	}
+
+	@ConfigurationProperties("outer")
+	protected static class OuterProperties implements ApplicationContextAware {
+		private ApplicationContext context;
+		private String name;
+		private int count = 0;
+		private InnerProperties inner;
+
+		@Override
+		public void setApplicationContext(ApplicationContext context) {
+			this.context = context;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public InnerProperties getInner() {
+			return this.inner;
+		}
+
+		@PostConstruct
+		public void init() {
+			if (++this.count > 1) {
+				// Creates the lazy bean while this one is being rebound
+				this.inner = this.context.getBean(InnerProperties.class);
+			}
+		}
+	}
+
+	@ConfigurationProperties("inner")
+	protected static class InnerProperties {
+		private String name;
+
+		public String getName() {
+			return this.name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
 	@ConfigurationProperties("config")
 	@ConditionalOnMissingBean(ConfigProperties.class)
 	public static class ConfigProperties {
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.properties;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cloud.autoconfigure.ConfigurationPropertiesRebinderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.MapPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConfigurationPropertiesRebinderParallelTests {
+
+	private static final Log logger = LogFactory
+			.getLog(ConfigurationPropertiesRebinderParallelTests.class);
+
+	private AnnotationConfigApplicationContext context;
+
+	@After
+	public void close() {
+		if (this.context != null) {
+			this.context.close();
+		}
+	}
+
+	@Test
+	public void parallelismFromEnvironment() {
+		this.context = createContext(10, "spring.cloud.refresh.rebind-parallelism:4");
+		assertThat(this.context.getBean(ConfigurationPropertiesRebinder.class)
+				.getParallelism()).isEqualTo(4);
+	}
+
+	@Test
+	public void parallelRebindUpdatesAllBeans() {
+		this.context = createContext(100);
+		ConfigurationPropertiesRebinder rebinder = this.context
+				.getBean(ConfigurationPropertiesRebinder.class);
+		rebinder.setParallelism(4);
+		change("bench.message", "Bar");
+		rebinder.rebind();
+		for (BenchProperties bean : this.context.getBeansOfType(BenchProperties.class)
+				.values()) {
+			assertThat(bean.getMessage()).isEqualTo("Bar");
+		}
+		assertThat(rebinder.getErrors()).isEmpty();
+	}
+
+	@Test
+	public void dependentBeansRebound() {
+		this.context = new AnnotationConfigApplicationContext();
+		this.context.register(TestConfiguration.class);
+		RootBeanDefinition dependent = new RootBeanDefinition(BenchProperties.class);
+		dependent.setDependsOn("bench1");
+		this.context.registerBeanDefinition("bench0", dependent);
+		this.context.registerBeanDefinition("bench1",
+				new RootBeanDefinition(BenchProperties.class));
+		this.context.registerBeanDefinition("bench2",
+				new RootBeanDefinition(BenchProperties.class));
+		this.context.refresh();
+		ConfigurationPropertiesRebinder rebinder = this.context
+				.getBean(ConfigurationPropertiesRebinder.class);
+		rebinder.setParallelism(2);
+		change("bench.message", "Bar");
+		rebinder.rebind();
+		for (BenchProperties bean : this.context.getBeansOfType(BenchProperties.class)
+				.values()) {
+			assertThat(bean.getMessage()).isEqualTo("Bar");
+		}
+	}
+
+	@Test
+	public void errorsCollected() {
+		this.context = new AnnotationConfigApplicationContext();
+		this.context.register(TestConfiguration.class);
+		for (int i = 0; i < 50; i++) {
+			this.context.registerBeanDefinition("bench" + i,
+					new RootBeanDefinition(BenchProperties.class));
+		}
+		this.context.registerBeanDefinition("failing",
+				new RootBeanDefinition(FailingProperties.class));
+		this.context.refresh();
+		ConfigurationPropertiesRebinder rebinder = this.context
+				.getBean(ConfigurationPropertiesRebinder.class);
+		rebinder.setParallelism(4);
+		change("bench.message", "fail");
+		try {
+			rebinder.rebind();
+			fail("Expected binding failure");
+		}
+		catch (RuntimeException e) {
+			// expected
+		}
+		assertThat(rebinder.getErrors()).containsOnlyKeys("failing");
+		// The independent beans were still rebound
+		assertThat(this.context.getBean("bench0", BenchProperties.class).getMessage())
+				.isEqualTo("fail");
+		// Single bean semantics are unchanged
+		assertThat(rebinder.rebind("bench0")).isTrue();
+		assertThat(rebinder.rebind("missing")).isFalse();
+	}
+
+	@Test
+	public void benchmark() {
+		int count = 3000;
+		this.context = createContext(count);
+		ConfigurationPropertiesRebinder rebinder = this.context
+				.getBean(ConfigurationPropertiesRebinder.class);
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		// Warm up
+		rebinder.rebind();
+		rebinder.setParallelism(threads);
+		rebinder.rebind();
+		for (int i = 0; i < 3; i++) {
+			rebinder.setParallelism(1);
+			change("bench.message", "Sequential" + i);
+			rebinder.rebind();
+			long sequential = rebinder.getLastRebindTime();
+			rebinder.setParallelism(threads);
+			change("bench.message", "Parallel" + i);
+			rebinder.rebind();
+			long parallel = rebinder.getLastRebindTime();
+			logger.info("Rebind " + count + " beans: sequential=" + sequential
+					+ "ms, parallel(" + threads + ")=" + parallel + "ms");
+			assertThat(this.context.getBean("bench" + (count - 1), BenchProperties.class)
+					.getMessage()).isEqualTo("Parallel" + i);
+		}
+		assertThat(rebinder.getErrors()).isEmpty();
+	}
+
+	private AnnotationConfigApplicationContext createContext(int count,
+			String... properties) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		EnvironmentTestUtils.addEnvironment(context, properties);
+		context.register(TestConfiguration.class);
+		for (int i = 0; i < count; i++) {
+			context.registerBeanDefinition("bench" + i,
+					new RootBeanDefinition(BenchProperties.class));
+		}
+		context.refresh();
+		return context;
+	}
+
+	private void change(String key, String value) {
+		Map<String, Object> map = new HashMap<>();
+		map.put(key, value);
+		// A new instance every time so the change is visible
+		this.context.getEnvironment().getPropertySources()
+				.addFirst(new MapPropertySource("bench", map));
+	}
+
+	@Configuration
+	@EnableConfigurationProperties
+	@Import({ TestConfiguration.RebinderConfiguration.class,
+			PropertyPlaceholderAutoConfiguration.class })
+	protected static class TestConfiguration {
+
+		@Configuration
+		protected static class RebinderConfiguration
+				extends ConfigurationPropertiesRebinderAutoConfiguration {
+
+		}
+
+	}
+
+	@ConfigurationProperties("bench")
+	protected static class BenchProperties {
+
+		private String message = "Foo";
+
+		private int count;
+
+		private List<String> items;
+
+		private Map<String, String> details;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public List<String> getItems() {
+			return this.items;
+		}
+
+		public void setItems(List<String> items) {
+			this.items = items;
+		}
+
+		public Map<String, String> getDetails() {
+			return this.details;
+		}
+
+		public void setDetails(Map<String, String> details) {
+			this.details = details;
+		}
+
+	}
+
+	@ConfigurationProperties("bench")
+	protected static class FailingProperties {
+
+		private String message;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			if ("fail".equals(message)) {
+				throw new IllegalStateException("Planned");
+			}
+			this.message = message;
+		}
+
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.properties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessorRegistrar;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.autoconfigure.ConfigurationPropertiesRebinderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.SystemEnvironmentPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RebindPropertySourcesTests {
+
+	private AnnotationConfigApplicationContext context;
+
+	@After
+	public void close() {
+		if (this.context != null) {
+			this.context.close();
+		}
+	}
+
+	@Test
+	public void onlyMatchingNamesListedDuringRebind() {
+		MutablePropertySources delegate = new MutablePropertySources();
+		delegate.addFirst(source("first", "foo.bar", "bar", "FOO_SPAM", "foo-bar.spam",
+				"food"));
+		RebindPropertySources sources = new RebindPropertySources(delegate);
+		RebindPropertySources.Plan plan = sources.plan();
+		Object bean = new Object();
+		sources.begin(plan, "foo", bean);
+		sources.initializing(bean);
+		try {
+			EnumerablePropertySource<?> source = (EnumerablePropertySource<?>) sources
+					.iterator().next();
+			// A superset of the names that can match (the binder does the rest)
+			assertThat(source.getPropertyNames()).containsExactly("foo.bar", "FOO_SPAM",
+					"foo-bar.spam", "food");
+			// All the values are still available
+			assertThat(source.getProperty("bar")).isEqualTo("bar");
+		}
+		finally {
+			sources.end();
+		}
+		assertThat(((EnumerablePropertySource<?>) sources.iterator().next())
+				.getPropertyNames()).hasSize(5);
+	}
+
+	@Test
+	public void allNamesListedForOtherBean() {
+		MutablePropertySources delegate = new MutablePropertySources();
+		delegate.addFirst(source("first", "foo.bar", "bar", "spam.bar", "spam"));
+		RebindPropertySources sources = new RebindPropertySources(delegate);
+		Object bean = new Object();
+		sources.begin(sources.plan(), "foo", bean);
+		try {
+			// Not bound yet
+			assertThat(((EnumerablePropertySource<?>) sources.iterator().next())
+					.getPropertyNames()).hasSize(4);
+			sources.initializing(bean);
+			assertThat(((EnumerablePropertySource<?>) sources.iterator().next())
+					.getPropertyNames()).containsExactly("foo.bar");
+			// Another bean created while the first one is initialized
+			sources.initializing(new Object());
+			assertThat(((EnumerablePropertySource<?>) sources.iterator().next())
+					.getPropertyNames()).hasSize(4);
+		}
+		finally {
+			sources.end();
+		}
+	}
+
+	@Test
+	public void compositeKeepsStructure() {
+		MutablePropertySources delegate = new MutablePropertySources();
+		CompositePropertySource composite = new CompositePropertySource("composite");
+		composite.addPropertySource(source("one", "foo.bar", "bar"));
+		composite.addPropertySource(source("two", "foo.spam", "spam"));
+		delegate.addFirst(composite);
+		RebindPropertySources sources = new RebindPropertySources(delegate);
+		Object bean = new Object();
+		sources.begin(sources.plan(), "foo", bean);
+		sources.initializing(bean);
+		try {
+			PropertySource<?> source = sources.iterator().next();
+			assertThat(source).isInstanceOf(CompositePropertySource.class);
+			List<String> names = new ArrayList<>();
+			for (PropertySource<?> nested : ((CompositePropertySource) source)
+					.getPropertySources()) {
+				names.addAll(Arrays.asList(
+						((EnumerablePropertySource<?>) nested).getPropertyNames()));
+			}
+			assertThat(names).containsExactly("foo.bar", "foo.spam");
+		}
+		finally {
+			sources.end();
+		}
+	}
+
+	@Test
+	public void rebindSameAsBind() {
+		this.context = new AnnotationConfigApplicationContext();
+		MutablePropertySources sources = this.context.getEnvironment()
+				.getPropertySources();
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("foo.message", "${other.message}");
+		map.put("other.message", "Hello");
+		map.put("foo.items[0]", "one");
+		map.put("foo.items[1]", "two");
+		map.put("spring.cloud.refresh.rebind-name-filter", "true");
+		sources.addFirst(new MapPropertySource("test", map));
+		this.context.register(TestConfiguration.class);
+		this.context.refresh();
+		FooProperties properties = this.context.getBean(FooProperties.class);
+		assertThat(properties.getMessage()).isEqualTo("Hello");
+		assertThat(properties.getItems()).containsExactly("one", "two");
+		// Same as a normal bind: the higher precedence list item is overlaid
+		map = new LinkedHashMap<>();
+		map.put("other.message", "Bye");
+		map.put("foo.items[0]", "three");
+		sources.addFirst(new MapPropertySource("list", map));
+		sources.addFirst(new SystemEnvironmentPropertySource("env",
+				Collections.<String, Object>singletonMap("FOO_COUNT", "5")));
+		ConfigurationPropertiesRebinder rebinder = this.context
+				.getBean(ConfigurationPropertiesRebinder.class);
+		rebinder.rebind();
+		assertThat(properties.getMessage()).isEqualTo("Bye");
+		assertThat(properties.getItems()).containsExactly("three", "two");
+		assertThat(properties.getCount()).isEqualTo(5);
+		assertThat(this.context.getBean(BarProperties.class).getMessage())
+				.isEqualTo("Bar");
+		assertThat(ReflectionTestUtils.getField(
+				this.context.getBean(
+						ConfigurationPropertiesBindingPostProcessorRegistrar.BINDER_BEAN_NAME),
+				"propertySources")).isInstanceOf(RebindPropertySources.class);
+	}
+
+	@Test
+	public void binderUnchangedByDefault() {
+		this.context = new AnnotationConfigApplicationContext();
+		this.context.register(TestConfiguration.class);
+		this.context.refresh();
+		this.context.getBean(ConfigurationPropertiesRebinder.class).rebind();
+		Object binder = this.context.getBean(
+				ConfigurationPropertiesBindingPostProcessorRegistrar.BINDER_BEAN_NAME);
+		assertThat(ReflectionTestUtils.getField(binder, "propertySources"))
+				.isNotInstanceOf(RebindPropertySources.class);
+	}
+
+	private MapPropertySource source(String name, String... keys) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (String key : keys) {
+			map.put(key, key);
+		}
+		return new MapPropertySource(name, map);
+	}
+
+	@Configuration
+	@EnableConfigurationProperties
+	@Import({ TestConfiguration.RebinderConfiguration.class,
+			PropertyPlaceholderAutoConfiguration.class })
+	protected static class TestConfiguration {
+
+		@Bean
+		public FooProperties fooProperties() {
+			return new FooProperties();
+		}
+
+		@Bean
+		public BarProperties barProperties() {
+			return new BarProperties();
+		}
+
+		@Configuration
+		protected static class RebinderConfiguration
+				extends ConfigurationPropertiesRebinderAutoConfiguration {
+
+		}
+
+	}
+
+	@ConfigurationProperties("foo")
+	protected static class FooProperties {
+
+		private String message;
+
+		private int count;
+
+		private List<String> items = new ArrayList<>();
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public List<String> getItems() {
+			return this.items;
+		}
+
+		public void setItems(List<String> items) {
+			this.items = items;
+		}
+
+	}
+
+	@ConfigurationProperties("bar")
+	protected static class BarProperties {
+
+		private String message = "Bar";
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+	}
+
+}
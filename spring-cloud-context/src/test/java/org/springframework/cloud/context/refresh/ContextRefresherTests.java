@@ -6,17 +6,27 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import javax.annotation.PostConstruct;
+
 import org.junit.After;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.logging.LoggingSystem;
 import org.springframework.boot.test.util.EnvironmentTestUtils;
 import org.springframework.cloud.bootstrap.TestBootstrapConfiguration;
+import org.springframework.cloud.autoconfigure.ConfigurationPropertiesRebinderAutoConfiguration;
 import org.springframework.cloud.bootstrap.config.PropertySourceLocator;
+import org.springframework.cloud.context.properties.ConfigurationPropertiesRebinder;
 import org.springframework.cloud.context.scope.refresh.RefreshScope;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.env.MutablePropertySources;
@@ -26,6 +36,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class ContextRefresherTests {
 
+	private static Log logger = LogFactory.getLog(ContextRefresherTests.class);
+
 	private RefreshScope scope = Mockito.mock(RefreshScope.class);
 	private ConfigurableApplicationContext context;
 
@@ -133,6 +145,182 @@ public class ContextRefresherTests {
 		TestBootstrapConfiguration.fooSightings = null;
 	}
 
+	@Test
+	public void lightweightOrderNewPropertiesConsistentWithNewContext() {
+		context = SpringApplication.run(ContextRefresherTests.class,
+				"--spring.main.webEnvironment=false", "--debug=false",
+				"--spring.main.bannerMode=OFF");
+		context.getEnvironment().setActiveProfiles("refresh");
+		ContextRefresher refresher = new ContextRefresher(context, scope);
+		refresher.setLightweight(true);
+		refresher.refresh();
+		List<String> names = names(context.getEnvironment().getPropertySources());
+		assertThat(names).containsSequence(
+				"applicationConfig: [classpath:/bootstrap-refresh.properties]",
+				"applicationConfig: [classpath:/bootstrap.properties]");
+		assertThat(context.getEnvironment().getProperty("test.bootstrap.foo"))
+				.isEqualTo("refresh");
+	}
+
+	@Test
+	public void lightweightReloadUsesExistingLocators() {
+		context = SpringApplication.run(ContextRefresherTests.class,
+				"--spring.main.webEnvironment=false", "--debug=false",
+				"--spring.main.bannerMode=OFF", "--spring.cloud.bootstrap.name=refresh",
+				"--spring.cloud.bootstrap.sources=org.springframework.cloud.context.refresh.ContextRefresherTests.PropertySourceConfiguration");
+		assertThat(context.getEnvironment().getProperty("bootstrap.foo"))
+				.isEqualTo("refresh");
+		ContextRefresher refresher = new ContextRefresher(context, scope);
+		refresher.setLightweight(true);
+		Map<String, Object> map = PropertySourceConfiguration.MAP;
+		// A new map because the old one is still in the environment
+		PropertySourceConfiguration.MAP = Collections
+				.<String, Object>singletonMap("bootstrap.foo", "changed");
+		try {
+			assertThat(refresher.refresh()).containsExactly("bootstrap.foo");
+			assertThat(context.getEnvironment().getProperty("bootstrap.foo"))
+					.isEqualTo("changed");
+			assertThat(names(context.getEnvironment().getPropertySources())).first()
+					.isEqualTo("bootstrapProperties");
+			assertThat(refresher.addConfigFilesToEnvironment()).isNull();
+		}
+		finally {
+			PropertySourceConfiguration.MAP = map;
+		}
+	}
+
+	@Test
+	public void lightweightReloadNewBootstrapContextWhenBootstrapConfigChanges() {
+		context = SpringApplication.run(ContextRefresherTests.class,
+				"--spring.main.webEnvironment=false", "--debug=false",
+				"--spring.main.bannerMode=OFF");
+		ContextRefresher refresher = new ContextRefresher(context, scope);
+		refresher.setLightweight(true);
+		assertThat(refresher.addConfigFilesToEnvironment()).isNull();
+		// Brings in bootstrap-refresh.properties
+		context.getEnvironment().setActiveProfiles("refresh");
+		ConfigurableApplicationContext capture = refresher.addConfigFilesToEnvironment();
+		assertThat(capture).isNotNull();
+		assertThat(context.getEnvironment().getProperty("test.bootstrap.foo"))
+				.isEqualTo("refresh");
+		// Back to lightweight now that the new configuration is known
+		assertThat(refresher.addConfigFilesToEnvironment()).isNull();
+		assertThat(context.getEnvironment().getProperty("test.bootstrap.foo"))
+				.isEqualTo("refresh");
+		// A new locator in the bootstrap context
+		EnvironmentTestUtils.addEnvironment("defaultProperties", context.getEnvironment(),
+				"spring.cloud.bootstrap.sources: org.springframework.cloud.context.refresh.ContextRefresherTests.PropertySourceConfiguration");
+		Map<String, Object> map = PropertySourceConfiguration.MAP;
+		try {
+			capture = refresher.addConfigFilesToEnvironment();
+			assertThat(capture).isNotNull();
+			assertThat(context.getEnvironment().getProperty("bootstrap.foo"))
+					.isEqualTo("refresh");
+			PropertySourceConfiguration.MAP = Collections
+					.<String, Object>singletonMap("bootstrap.foo", "changed");
+			// Lightweight, with the locators from the new bootstrap context
+			assertThat(refresher.addConfigFilesToEnvironment()).isNull();
+			assertThat(context.getEnvironment().getProperty("bootstrap.foo"))
+					.isEqualTo("changed");
+		}
+		finally {
+			PropertySourceConfiguration.MAP = map;
+			refresher.destroy();
+		}
+		assertThat(capture.isActive()).isFalse();
+	}
+
+	@Test
+	public void lightweightReloadMatchesNewContext() {
+		context = SpringApplication.run(ContextRefresherTests.class,
+				"--spring.main.webEnvironment=false", "--debug=false",
+				"--spring.main.bannerMode=OFF",
+				"--spring.cloud.bootstrap.sources=org.springframework.cloud.context.refresh.ContextRefresherTests.PropertySourceConfiguration");
+		ContextRefresher full = new ContextRefresher(context, scope);
+		ContextRefresher lightweight = new ContextRefresher(context, scope);
+		lightweight.setLightweight(true);
+		full.refresh();
+		List<String> expected = names(context.getEnvironment().getPropertySources());
+		lightweight.refresh();
+		assertThat(names(context.getEnvironment().getPropertySources()))
+				.isEqualTo(expected);
+		int count = 20;
+		long fullTime = time(full, count);
+		long lightweightTime = time(lightweight, count);
+		logger.info("Average refresh time: new context=" + fullTime / count
+				+ "ms, lightweight=" + lightweightTime / count + "ms");
+	}
+
+	@Test
+	public void onlyEffectiveChangesReported() {
+		context = SpringApplication.run(ContextRefresherTests.class,
+				"--spring.main.webEnvironment=false", "--debug=false",
+				"--spring.main.bannerMode=OFF", "--spring.cloud.bootstrap.name=refresh",
+				"--spring.cloud.bootstrap.sources=org.springframework.cloud.context.refresh.ContextRefresherTests.PropertySourceConfiguration");
+		Map<String, Object> big = new HashMap<>();
+		for (int i = 0; i < 40000; i++) {
+			big.put("big.key" + i, "value" + i);
+		}
+		context.getEnvironment().getPropertySources()
+				.addLast(new MapPropertySource("big", big));
+		ContextRefresher refresher = new ContextRefresher(context, scope);
+		refresher.setLightweight(true);
+		// Warm up
+		assertThat(refresher.refresh()).isEmpty();
+		Map<String, Object> map = PropertySourceConfiguration.MAP;
+		try {
+			PropertySourceConfiguration.MAP = new HashMap<>(map);
+			PropertySourceConfiguration.MAP.put("bootstrap.foo", "changed");
+			PropertySourceConfiguration.MAP.put("bootstrap.bar", "new");
+			long start = System.currentTimeMillis();
+			assertThat(refresher.refresh()).containsOnly("bootstrap.foo",
+					"bootstrap.bar");
+			logger.info("Refresh with 40000 unchanged properties took "
+					+ (System.currentTimeMillis() - start) + "ms");
+			// A change that is hidden by a source with higher precedence
+			context.getEnvironment().getPropertySources().addFirst(
+					new MapPropertySource("override", Collections
+							.<String, Object>singletonMap("bootstrap.foo", "override")));
+			PropertySourceConfiguration.MAP = new HashMap<>(map);
+			assertThat(refresher.refresh()).containsOnly("bootstrap.bar");
+		}
+		finally {
+			PropertySourceConfiguration.MAP = map;
+		}
+	}
+
+	@Test
+	public void rebindTimeOnlyForCurrentRefresh() {
+		context = SpringApplication.run(RebindConfiguration.class,
+				"--spring.main.webEnvironment=false", "--debug=false",
+				"--spring.main.bannerMode=OFF", "--spring.cloud.bootstrap.name=refresh");
+		ContextRefresher refresher = new ContextRefresher(context, scope);
+		// Changes "message"
+		context.getEnvironment().setActiveProfiles("override");
+		RefreshResult result = refresher.refreshWithTimings();
+		assertThat(result.getKeys()).contains("message");
+		assertThat(result.getTimings().get(RefreshResult.REBIND))
+				.isGreaterThanOrEqualTo(SlowProperties.DELAY);
+		// Nothing changed, so nothing rebound
+		result = refresher.refreshWithTimings();
+		assertThat(result.getKeys()).isEmpty();
+		assertThat(result.getTimings().get(RefreshResult.REBIND)).isEqualTo(0L);
+		// A rebind between refreshes is not counted either
+		context.getBean(ConfigurationPropertiesRebinder.class).rebind();
+		result = refresher.refreshWithTimings();
+		assertThat(result.getTimings().get(RefreshResult.REBIND)).isEqualTo(0L);
+	}
+
+	private long time(ContextRefresher refresher, int count) {
+		// Warm up
+		refresher.refresh();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			refresher.refresh();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
 
 	private List<String> names(MutablePropertySources propertySources) {
 		List<String> list = new ArrayList<>();
@@ -160,6 +348,52 @@ public class ContextRefresherTests {
 	protected static class Empty {
 	}
 
+	@Configuration
+	@EnableConfigurationProperties
+	@Import(RebindConfiguration.RebinderConfiguration.class)
+	protected static class RebindConfiguration {
+
+		@Bean
+		public SlowProperties slowProperties() {
+			return new SlowProperties();
+		}
+
+		@Configuration
+		protected static class RebinderConfiguration
+				extends ConfigurationPropertiesRebinderAutoConfiguration {
+
+		}
+
+	}
+
+	@ConfigurationProperties
+	protected static class SlowProperties {
+
+		static final long DELAY = 100;
+
+		private String message;
+
+		private boolean initialized;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		@PostConstruct
+		public void init() throws InterruptedException {
+			if (this.initialized) {
+				// Only slow when rebound
+				Thread.sleep(DELAY);
+			}
+			this.initialized = true;
+		}
+
+	}
+
 	public static class TestLoggingSystem extends LoggingSystem {
 
 		private static int count;
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpiringScopeCacheTests {
+
+	private ExpiringScopeCache cache = new ExpiringScopeCache();
+
+	private List<String> evicted = new ArrayList<>();
+
+	@Before
+	public void init() {
+		// Sweep on the calling thread, so the tests are deterministic
+		this.cache.setExecutor(new SyncTaskExecutor());
+		this.cache.setEvictionListener(new ExpiringScopeCache.EvictionListener() {
+			@Override
+			public void evicted(String name, Object value) {
+				ExpiringScopeCacheTests.this.evicted.add(name);
+			}
+		});
+	}
+
+	@Test
+	public void putIfAbsent() {
+		assertThat(this.cache.put("foo", "bar")).isEqualTo("bar");
+		assertThat(this.cache.put("foo", "spam")).isEqualTo("bar");
+		assertThat(this.cache.get("foo")).isEqualTo("bar");
+		assertThat(this.cache.remove("foo")).isEqualTo("bar");
+		assertThat(this.cache.get("foo")).isNull();
+		assertThat(this.evicted).isEmpty();
+	}
+
+	@Test
+	public void maxSizeEvictsLeastRecentlyUsed() throws Exception {
+		this.cache.setMaxSize(2);
+		this.cache.put("one", "1");
+		Thread.sleep(1L);
+		this.cache.put("two", "2");
+		Thread.sleep(1L);
+		this.cache.get("one");
+		Thread.sleep(1L);
+		this.cache.put("three", "3");
+		assertThat(this.evicted).containsExactly("two");
+		assertThat(this.cache.get("one")).isEqualTo("1");
+		assertThat(this.cache.get("three")).isEqualTo("3");
+	}
+
+	@Test
+	public void idleValuesExpire() throws Exception {
+		this.cache.setIdleTime(50, TimeUnit.MILLISECONDS);
+		this.cache.put("one", "1");
+		this.cache.put("two", "2");
+		for (int i = 0; i < 5; i++) {
+			Thread.sleep(20L);
+			this.cache.get("two");
+		}
+		assertThat(this.evicted).containsExactly("one");
+		assertThat(this.cache.get("two")).isEqualTo("2");
+		Thread.sleep(60L);
+		assertThat(this.cache.evictExpired()).isEqualTo(1);
+		assertThat(this.evicted).containsExactly("one", "two");
+	}
+
+	@Test
+	public void scopeDestroysEvictedBeans() throws Exception {
+		GenericScope scope = new GenericScope();
+		scope.setScopeCache(this.cache);
+		scope.postProcessBeanFactory(new DefaultListableBeanFactory());
+		this.cache.setMaxSize(1);
+		final AtomicInteger destroyed = new AtomicInteger();
+		ObjectFactory<Object> factory = new ObjectFactory<Object>() {
+			@Override
+			public Object getObject() {
+				return new Object();
+			}
+		};
+		Object first = scope.get("one", factory);
+		scope.registerDestructionCallback("one", new Runnable() {
+			@Override
+			public void run() {
+				destroyed.incrementAndGet();
+			}
+		});
+		assertThat(scope.get("one", factory)).isSameAs(first);
+		scope.get("two", factory);
+		assertThat(destroyed.get()).isEqualTo(1);
+		assertThat(scope.get("one", factory)).isNotSameAs(first);
+	}
+
+	@Test
+	public void proxyCallAfterExpiryDoesNotHang() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+				ProxyConfiguration.class);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Service service = context.getBean("service", Service.class);
+			final Service other = context.getBean("other", Service.class);
+			service.getId();
+			Thread.sleep(100L);
+			// The call holds the read lock for the bean until it has expired again, and
+			// then looks up another bean in the same scope, so it must not wait for
+			// itself to be destroyed
+			Future<String> result = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return service.call(other, 100L);
+				}
+			});
+			assertThat(result.get(5, TimeUnit.SECONDS)).isNotNull();
+		}
+		finally {
+			executor.shutdownNow();
+			context.close();
+		}
+	}
+
+	@Test
+	public void evictionDoesNotWaitForBeanInUse() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+				ProxyConfiguration.class);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final Service service = context.getBean("service", Service.class);
+			final ExpiringScopeCache cache = context.getBean(ExpiringScopeCache.class);
+			final CountDownLatch latch = new CountDownLatch(1);
+			int destroyed = Service.destroyed.get();
+			Future<String> call = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return service.await(latch);
+				}
+			});
+			Thread.sleep(100L);
+			Future<Integer> evicted = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return cache.evictExpired();
+				}
+			});
+			assertThat(evicted.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+			assertThat(Service.destroyed.get()).isEqualTo(destroyed);
+			latch.countDown();
+			assertThat(call.get(5, TimeUnit.SECONDS)).isNotNull();
+			long timeout = System.currentTimeMillis() + 5000L;
+			while (Service.destroyed.get() == destroyed
+					&& System.currentTimeMillis() < timeout) {
+				Thread.sleep(10L);
+			}
+			assertThat(Service.destroyed.get()).isEqualTo(destroyed + 1);
+		}
+		finally {
+			executor.shutdownNow();
+			context.close();
+		}
+	}
+
+	public static class Service {
+
+		private static AtomicInteger count = new AtomicInteger();
+
+		private static AtomicInteger destroyed = new AtomicInteger();
+
+		private final String id = "service-" + count.incrementAndGet();
+
+		public String getId() {
+			return this.id;
+		}
+
+		public String call(Service other, long delay) throws InterruptedException {
+			Thread.sleep(delay);
+			return other.getId();
+		}
+
+		public String await(CountDownLatch latch) throws InterruptedException {
+			latch.await(5, TimeUnit.SECONDS);
+			return this.id;
+		}
+
+		public void close() {
+			destroyed.incrementAndGet();
+		}
+
+	}
+
+	@Configuration
+	protected static class ProxyConfiguration {
+
+		@Bean
+		public static ExpiringScopeCache cache() {
+			ExpiringScopeCache cache = new ExpiringScopeCache();
+			cache.setIdleTime(50, TimeUnit.MILLISECONDS);
+			return cache;
+		}
+
+		@Bean
+		public static org.springframework.cloud.context.scope.refresh.RefreshScope refreshScope(
+				ExpiringScopeCache cache) {
+			org.springframework.cloud.context.scope.refresh.RefreshScope scope = new org.springframework.cloud.context.scope.refresh.RefreshScope();
+			scope.setScopeCache(cache);
+			return scope;
+		}
+
+		@Bean(destroyMethod = "close")
+		@RefreshScope
+		public Service service() {
+			return new Service();
+		}
+
+		@Bean(destroyMethod = "close")
+		@RefreshScope
+		@Lazy
+		public Service other() {
+			return new Service();
+		}
+
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.cloud.context.scope.thread.ThreadLocalScopeCache;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GenericScopeTests {
+
+	private static Log logger = LogFactory.getLog(GenericScopeTests.class);
+
+	private GenericScope scope = new GenericScope();
+
+	private DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+
+	@Before
+	public void init() {
+		this.beanFactory.registerSingleton("foo", "Foo");
+		this.scope.postProcessBeanFactory(this.beanFactory);
+	}
+
+	@Test
+	public void contextualObjectResolvesBeans() {
+		assertThat(this.scope.resolveContextualObject("@foo")).isEqualTo("Foo");
+	}
+
+	@Test
+	public void contextualObjectExpressionsCached() {
+		for (int i = 0; i < 200; i++) {
+			// Enough times for the expression to be compiled
+			assertThat(this.scope.resolveContextualObject("@foo.length()"))
+					.isEqualTo(3);
+		}
+		assertThat(this.scope.getExpressionCacheMisses()).isEqualTo(1);
+		assertThat(this.scope.getExpressionCacheHits()).isEqualTo(199);
+	}
+
+	@Test
+	public void contextualObjectCacheBounded() {
+		this.scope.setExpressionCacheSize(1);
+		this.scope.resolveContextualObject("@foo");
+		this.scope.resolveContextualObject("@foo.length()");
+		this.scope.resolveContextualObject("@foo.length()");
+		this.scope.resolveContextualObject("@foo");
+		assertThat(this.scope.getExpressionCacheMisses()).isEqualTo(3);
+		assertThat(this.scope.getExpressionCacheHits()).isEqualTo(1);
+	}
+
+	@Test
+	public void cachedLookupDoesNotAllocate() {
+		assertThat(allocatedBytesPerLookup()).isLessThan(8.0);
+	}
+
+	@Test
+	public void cachedThreadLocalLookupDoesNotAllocate() {
+		this.scope.setScopeCache(new ThreadLocalScopeCache());
+		assertThat(allocatedBytesPerLookup()).isLessThan(8.0);
+	}
+
+	@Test
+	public void proxyCachesTargetUntilRefreshed() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+				ProxyConfiguration.class);
+		try {
+			Service service = context.getBean(Service.class);
+			CountingScopeCache cache = context.getBean(CountingScopeCache.class);
+			String first = service.getId();
+			int lookups = cache.getLookups();
+			for (int i = 0; i < 1000; i++) {
+				assertThat(service.getId()).isEqualTo(first);
+			}
+			assertThat(cache.getLookups()).isEqualTo(lookups);
+			context.getBean(
+					org.springframework.cloud.context.scope.refresh.RefreshScope.class)
+					.refreshAll();
+			assertThat(service.getId()).isNotEqualTo(first);
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	@Test
+	public void rebuildDestroysOldInstanceWhenNotSwapped() {
+		final ObjectFactory<Object> factory = new ObjectFactory<Object>() {
+			@Override
+			public Object getObject() {
+				return new Object();
+			}
+		};
+		final AtomicInteger destroyed = new AtomicInteger();
+		this.scope.setScopeCache(new StandardScopeCache() {
+			@Override
+			public Object remove(String name) {
+				Object value = super.remove(name);
+				// Another caller creates a new instance before the rebuilt one is added
+				GenericScopeTests.this.scope.get(name, factory);
+				return value;
+			}
+		});
+		this.scope.get("bar", factory);
+		this.scope.registerDestructionCallback("bar", new Runnable() {
+			@Override
+			public void run() {
+				destroyed.incrementAndGet();
+			}
+		});
+		assertThat(this.scope.rebuild(Collections.singleton("bar"))).isEmpty();
+		assertThat(destroyed.get()).isEqualTo(1);
+	}
+
+	private double allocatedBytesPerLookup() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(bean.isThreadAllocatedMemorySupported()
+				&& bean.isThreadAllocatedMemoryEnabled());
+		ObjectFactory<Object> factory = new ObjectFactory<Object>() {
+			@Override
+			public Object getObject() {
+				return new Object();
+			}
+		};
+		int iterations = 100000;
+		// Warm up so the measurement isn't skewed by class loading or the JIT
+		for (int i = 0; i < iterations; i++) {
+			this.scope.get("bar", factory);
+		}
+		long id = Thread.currentThread().getId();
+		long before = bean.getThreadAllocatedBytes(id);
+		for (int i = 0; i < iterations; i++) {
+			this.scope.get("bar", factory);
+		}
+		double result = (double) (bean.getThreadAllocatedBytes(id) - before) / iterations;
+		logger.info("Allocated bytes per cached lookup: " + result);
+		return result;
+	}
+
+	public static class Service {
+
+		private static AtomicInteger count = new AtomicInteger();
+
+		private final String id = "service-" + count.incrementAndGet();
+
+		public String getId() {
+			return this.id;
+		}
+
+	}
+
+	public static class CountingScopeCache extends StandardScopeCache {
+
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		@Override
+		public Object get(String name) {
+			this.lookups.incrementAndGet();
+			return super.get(name);
+		}
+
+		public int getLookups() {
+			return this.lookups.get();
+		}
+
+	}
+
+	@Configuration
+	protected static class ProxyConfiguration {
+
+		@Bean
+		public static CountingScopeCache cache() {
+			return new CountingScopeCache();
+		}
+
+		@Bean
+		public static org.springframework.cloud.context.scope.refresh.RefreshScope refreshScope() {
+			org.springframework.cloud.context.scope.refresh.RefreshScope scope = new org.springframework.cloud.context.scope.refresh.RefreshScope();
+			scope.setScopeCache(cache());
+			return scope;
+		}
+
+		@Bean
+		@RefreshScope
+		public Service service() {
+			return new Service();
+		}
+
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StripedReadWriteLockTests {
+
+	private static Log logger = LogFactory.getLog(StripedReadWriteLockTests.class);
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	private StripedReadWriteLock lock = new StripedReadWriteLock();
+
+	@After
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void readersDoNotBlockEachOther() throws Exception {
+		this.lock.readLock().lock();
+		try {
+			assertThat(tryLock(false).get()).isTrue();
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Test
+	public void writerWaitsForReaders() throws Exception {
+		this.lock.readLock().lock();
+		try {
+			assertThat(tryLock(true).get()).isFalse();
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+		assertThat(tryLock(true).get()).isTrue();
+	}
+
+	@Test
+	public void readerWaitsForWriter() throws Exception {
+		this.lock.writeLock().lock();
+		try {
+			assertThat(tryLock(false).get()).isFalse();
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		assertThat(tryLock(false).get()).isTrue();
+	}
+
+	@Test
+	public void writerIsReentrantAndCanDowngrade() throws Exception {
+		this.lock.writeLock().lock();
+		this.lock.writeLock().lock();
+		this.lock.readLock().lock();
+		this.lock.writeLock().unlock();
+		this.lock.writeLock().unlock();
+		assertThat(tryLock(false).get()).isTrue();
+		assertThat(tryLock(true).get()).isFalse();
+		this.lock.readLock().unlock();
+		assertThat(tryLock(true).get()).isTrue();
+	}
+
+	@Test
+	public void nestedReadWhileWriterWaits() throws Exception {
+		this.lock.readLock().lock();
+		final CountDownLatch started = new CountDownLatch(1);
+		Future<Boolean> writer = this.executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				started.countDown();
+				lock.writeLock().lock();
+				lock.writeLock().unlock();
+				return true;
+			}
+		});
+		assertThat(started.await(1000, TimeUnit.MILLISECONDS)).isTrue();
+		Thread.sleep(50L);
+		// Writer is now waiting for us, but we can still get in again
+		assertThat(this.lock.readLock().tryLock(1000, TimeUnit.MILLISECONDS)).isTrue();
+		this.lock.readLock().unlock();
+		assertThat(writer.isDone()).isFalse();
+		this.lock.readLock().unlock();
+		assertThat(writer.get(1000, TimeUnit.MILLISECONDS)).isTrue();
+	}
+
+	@Test
+	public void contentionComparedToReentrantReadWriteLock() throws Exception {
+		int threads = 8;
+		int iterations = 200000;
+		// Warm up both before measuring
+		contend(new ReentrantReadWriteLock(), threads, iterations / 10);
+		contend(new StripedReadWriteLock(), threads, iterations / 10);
+		long reentrant = contend(new ReentrantReadWriteLock(), threads, iterations);
+		long striped = contend(new StripedReadWriteLock(), threads, iterations);
+		logger.info("Read locks for " + threads + " threads x " + iterations
+				+ " iterations: ReentrantReadWriteLock=" + reentrant
+				+ "ms, StripedReadWriteLock=" + striped + "ms");
+	}
+
+	private long contend(final ReadWriteLock lock, int threads, final int iterations)
+			throws Exception {
+		final int[] value = new int[2];
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(this.executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					start.await();
+					boolean consistent = true;
+					for (int j = 0; j < iterations; j++) {
+						lock.readLock().lock();
+						try {
+							consistent &= value[0] == value[1];
+						}
+						finally {
+							lock.readLock().unlock();
+						}
+						if (j % 10000 == 0) {
+							lock.writeLock().lock();
+							try {
+								value[0]++;
+								value[1]++;
+							}
+							finally {
+								lock.writeLock().unlock();
+							}
+						}
+					}
+					return consistent;
+				}
+			}));
+		}
+		long time = System.currentTimeMillis();
+		start.countDown();
+		for (Future<Boolean> result : results) {
+			assertThat(result.get()).isTrue();
+		}
+		return System.currentTimeMillis() - time;
+	}
+
+	private Future<Boolean> tryLock(final boolean write) {
+		return this.executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				ReadWriteLock lock = StripedReadWriteLockTests.this.lock;
+				boolean locked = write
+						? lock.writeLock().tryLock(100, TimeUnit.MILLISECONDS)
+						: lock.readLock().tryLock(100, TimeUnit.MILLISECONDS);
+				if (locked) {
+					if (write) {
+						lock.writeLock().unlock();
+					}
+					else {
+						lock.readLock().unlock();
+					}
+				}
+				return locked;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.refresh;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeBlueGreenIntegrationTests.TestConfiguration;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = "spring.cloud.refresh.blue-green=true")
+public class RefreshScopeBlueGreenIntegrationTests {
+
+	@Autowired
+	private Service service;
+
+	@Autowired
+	private TestProperties properties;
+
+	@Autowired
+	private org.springframework.cloud.context.scope.refresh.RefreshScope scope;
+
+	@Autowired
+	private Listener listener;
+
+	@Before
+	public void init() {
+		ExampleService.reset();
+	}
+
+	@Test
+	@DirtiesContext
+	public void testRefreshInBackground() throws Exception {
+		assertThat(this.service.getMessage()).isEqualTo("Hello scope!");
+		this.properties.setMessage("Foo");
+		this.properties.setDelay(500);
+		this.listener.reset();
+		long start = System.currentTimeMillis();
+		this.scope.refreshAll();
+		// The old instance is still in use while the new one is being built
+		assertThat(this.service.getMessage()).isEqualTo("Hello scope!");
+		assertThat(System.currentTimeMillis() - start).isLessThan(500);
+		assertThat(this.listener.await()).isTrue();
+		assertThat(this.service.getMessage()).isEqualTo("Foo");
+		assertThat(ExampleService.getInitCount()).isEqualTo(1);
+		assertThat(ExampleService.getDestroyCount()).isEqualTo(1);
+	}
+
+	@Test
+	@DirtiesContext
+	public void testFailedRebuildKeepsOldInstance() throws Exception {
+		assertThat(this.service.getMessage()).isEqualTo("Hello scope!");
+		this.properties.setMessage("Foo");
+		this.properties.setDelay(-1);
+		this.listener.reset();
+		this.scope.refreshAll();
+		assertThat(this.listener.await()).isTrue();
+		assertThat(this.service.getMessage()).isEqualTo("Hello scope!");
+		assertThat(this.scope.getErrors()).containsKey("scopedTarget.service");
+		assertThat(ExampleService.getDestroyCount()).isEqualTo(0);
+	}
+
+	public static interface Service {
+
+		String getMessage();
+
+	}
+
+	public static class ExampleService
+			implements Service, InitializingBean, DisposableBean {
+
+		private static AtomicInteger initCount = new AtomicInteger();
+		private static AtomicInteger destroyCount = new AtomicInteger();
+
+		private String message = null;
+		private long delay = 0;
+
+		public static void reset() {
+			initCount.set(0);
+			destroyCount.set(0);
+		}
+
+		public static int getInitCount() {
+			return initCount.get();
+		}
+
+		public static int getDestroyCount() {
+			return destroyCount.get();
+		}
+
+		public void setDelay(long delay) {
+			this.delay = delay;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		@Override
+		public void afterPropertiesSet() throws Exception {
+			if (this.delay < 0) {
+				throw new IllegalStateException("Planned");
+			}
+			Thread.sleep(this.delay);
+			initCount.incrementAndGet();
+		}
+
+		@Override
+		public void destroy() throws Exception {
+			destroyCount.incrementAndGet();
+			this.message = null;
+		}
+
+		@Override
+		public String getMessage() {
+			return this.message;
+		}
+
+	}
+
+	public static class Listener
+			implements ApplicationListener<RefreshScopeRefreshedEvent> {
+
+		private volatile CountDownLatch latch = new CountDownLatch(1);
+
+		public void reset() {
+			this.latch = new CountDownLatch(1);
+		}
+
+		public boolean await() throws InterruptedException {
+			return this.latch.await(5000, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void onApplicationEvent(RefreshScopeRefreshedEvent event) {
+			this.latch.countDown();
+		}
+
+	}
+
+	@Configuration
+	@EnableConfigurationProperties(TestProperties.class)
+	@Import({ RefreshAutoConfiguration.class,
+			PropertyPlaceholderAutoConfiguration.class })
+	protected static class TestConfiguration {
+
+		@Autowired
+		private TestProperties properties;
+
+		@Bean
+		@RefreshScope
+		public ExampleService service() {
+			ExampleService service = new ExampleService();
+			service.setMessage(this.properties.getMessage());
+			service.setDelay(this.properties.getDelay());
+			return service;
+		}
+
+		@Bean
+		public Listener listener() {
+			return new Listener();
+		}
+
+	}
+
+	@ConfigurationProperties
+	protected static class TestProperties {
+
+		private String message;
+		private int delay;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		public int getDelay() {
+			return this.delay;
+		}
+
+		public void setDelay(int delay) {
+			this.delay = delay;
+		}
+
+	}
+
+}
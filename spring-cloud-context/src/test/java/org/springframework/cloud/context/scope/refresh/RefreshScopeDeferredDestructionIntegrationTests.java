@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.refresh;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeDeferredDestructionIntegrationTests.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = "spring.cloud.refresh.deferred-destruction=true")
+public class RefreshScopeDeferredDestructionIntegrationTests {
+
+	private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@Autowired
+	private Service service;
+
+	@Autowired
+	private TestProperties properties;
+
+	@Autowired
+	private org.springframework.cloud.context.scope.refresh.RefreshScope scope;
+
+	@Before
+	public void init() {
+		ExampleService.reset();
+	}
+
+	@After
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	@DirtiesContext
+	public void testSlowDestroyDoesNotBlockRefresh() throws Exception {
+		assertThat(this.service.getMessage()).isEqualTo("Hello scope!");
+		this.properties.setMessage("Foo");
+		ExampleService.destroyDelay = 500;
+		long start = System.currentTimeMillis();
+		this.scope.refreshAll();
+		assertThat(this.service.getMessage()).isEqualTo("Foo");
+		assertThat(System.currentTimeMillis() - start).isLessThan(500);
+		assertThat(ExampleService.awaitDestroyed()).isTrue();
+		assertThat(ExampleService.destroyCount.get()).isEqualTo(1);
+	}
+
+	@Test
+	@DirtiesContext
+	public void testInFlightCallCompletesBeforeDestroy() throws Exception {
+		assertThat(this.service.getMessage()).isEqualTo("Hello scope!");
+		this.properties.setMessage("Foo");
+		ExampleService.callDelay = 500;
+		final CountDownLatch latch = new CountDownLatch(1);
+		Future<String> result = this.executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				latch.countDown();
+				return RefreshScopeDeferredDestructionIntegrationTests.this.service
+						.getMessage();
+			}
+		});
+		assertThat(latch.await(1000, TimeUnit.MILLISECONDS)).isTrue();
+		Thread.sleep(100L);
+		this.scope.refreshAll();
+		ExampleService.callDelay = 0;
+		// A new caller gets the new instance straight away...
+		assertThat(this.service.getMessage()).isEqualTo("Foo");
+		assertThat(ExampleService.destroyCount.get()).isEqualTo(0);
+		// ...and the old one isn't destroyed under the feet of the old caller
+		assertThat(result.get()).isEqualTo("Hello scope!");
+		assertThat(ExampleService.awaitDestroyed()).isTrue();
+	}
+
+	public static interface Service {
+
+		String getMessage();
+
+	}
+
+	public static class ExampleService implements Service, DisposableBean {
+
+		private static volatile long callDelay = 0;
+		private static volatile long destroyDelay = 0;
+		private static volatile CountDownLatch destroyed = new CountDownLatch(1);
+		private static AtomicInteger destroyCount = new AtomicInteger();
+
+		private String message = null;
+
+		public static void reset() {
+			callDelay = 0;
+			destroyDelay = 0;
+			destroyed = new CountDownLatch(1);
+			destroyCount.set(0);
+		}
+
+		public static boolean awaitDestroyed() throws InterruptedException {
+			return destroyed.await(5000, TimeUnit.MILLISECONDS);
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		@Override
+		public void destroy() throws Exception {
+			Thread.sleep(destroyDelay);
+			this.message = null;
+			destroyCount.incrementAndGet();
+			destroyed.countDown();
+		}
+
+		@Override
+		public String getMessage() {
+			String message = this.message;
+			try {
+				Thread.sleep(callDelay);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// Make sure we notice if the bean was destroyed while we were sleeping
+			return this.message == null ? null : message;
+		}
+
+	}
+
+	@Configuration
+	@EnableConfigurationProperties(TestProperties.class)
+	@Import({ RefreshAutoConfiguration.class,
+			PropertyPlaceholderAutoConfiguration.class })
+	protected static class TestConfiguration {
+
+		@Autowired
+		private TestProperties properties;
+
+		@Bean
+		@RefreshScope
+		public ExampleService service() {
+			ExampleService service = new ExampleService();
+			service.setMessage(this.properties.getMessage());
+			return service;
+		}
+
+	}
+
+	@ConfigurationProperties
+	protected static class TestProperties {
+
+		private String message;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+	}
+
+}
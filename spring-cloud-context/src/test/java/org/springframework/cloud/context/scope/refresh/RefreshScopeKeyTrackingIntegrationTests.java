@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.refresh;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.context.ConfigurationPropertiesAutoConfiguration;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cloud.autoconfigure.ConfigurationPropertiesRebinderAutoConfiguration;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeKeyTrackingIntegrationTests.TestConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+		"spring.cloud.refresh.key-tracking=true", "foo.message=Foo",
+		"bar.message=Bar", "baz.message=Baz", "qux.message=Qux" })
+public class RefreshScopeKeyTrackingIntegrationTests {
+
+	@Autowired
+	private ExampleService foo;
+
+	@Autowired
+	private ExampleService bar;
+
+	@Autowired
+	private TestProperties baz;
+
+	@Autowired
+	private ExampleService qux;
+
+	@Autowired
+	private RefreshListener listener;
+
+	@Autowired
+	private ConfigurableEnvironment environment;
+
+	@Autowired
+	private ApplicationContext context;
+
+	@Autowired
+	private org.springframework.cloud.context.scope.refresh.RefreshScope scope;
+
+	@Test
+	@DirtiesContext
+	public void testOnlyAffectedBeanRefreshed() throws Exception {
+		assertThat(this.foo.getMessage()).isEqualTo("Foo");
+		assertThat(this.bar.getMessage()).isEqualTo("Bar");
+		int count = ExampleService.getInitCount();
+		EnvironmentTestUtils.addEnvironment(this.environment, "foo.message=Spam");
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.singleton("foo.message")));
+		assertThat(this.foo.getMessage()).isEqualTo("Spam");
+		assertThat(this.bar.getMessage()).isEqualTo("Bar");
+		assertThat(ExampleService.getInitCount()).isEqualTo(count + 1);
+	}
+
+	@Test
+	@DirtiesContext
+	public void testUnrelatedKeyRefreshesNothing() throws Exception {
+		assertThat(this.foo.getMessage()).isEqualTo("Foo");
+		assertThat(this.bar.getMessage()).isEqualTo("Bar");
+		assertThat(this.baz.getMessage()).isEqualTo("Baz");
+		assertThat(this.scope.refresh(Collections.singleton("other.message")))
+				.isEmpty();
+	}
+
+	@Test
+	@DirtiesContext
+	public void testConfigurationPropertiesPrefix() throws Exception {
+		assertThat(this.foo.getMessage()).isEqualTo("Foo");
+		assertThat(this.baz.getMessage()).isEqualTo("Baz");
+		EnvironmentTestUtils.addEnvironment(this.environment, "baz.message=Spam");
+		assertThat(this.scope.refresh(Collections.singleton("baz.message")))
+				.containsExactly("scopedTarget.baz");
+		assertThat(this.baz.getMessage()).isEqualTo("Spam");
+	}
+
+	@Test
+	@DirtiesContext
+	public void testRefreshedAfterConfigurationPropertiesRebound() throws Exception {
+		assertThat(this.qux.getMessage()).isEqualTo("Qux");
+		EnvironmentTestUtils.addEnvironment(this.environment, "qux.message=Spam");
+		this.context.publishEvent(new EnvironmentChangeEvent(this.context,
+				Collections.singleton("qux.message")));
+		// The listener creates a new instance as soon as the old one is refreshed
+		assertThat(this.listener.getMessage()).isEqualTo("Spam");
+		assertThat(this.qux.getMessage()).isEqualTo("Spam");
+	}
+
+	public static class ExampleService {
+
+		private static AtomicInteger initCount = new AtomicInteger();
+
+		private final String message;
+
+		public ExampleService(String message) {
+			this.message = message;
+			initCount.incrementAndGet();
+		}
+
+		public static int getInitCount() {
+			return initCount.get();
+		}
+
+		public String getMessage() {
+			return this.message;
+		}
+
+	}
+
+	public static class RefreshListener
+			implements ApplicationListener<RefreshScopeRefreshedEvent> {
+
+		private final ApplicationContext context;
+
+		private volatile String message;
+
+		public RefreshListener(ApplicationContext context) {
+			this.context = context;
+		}
+
+		@Override
+		public void onApplicationEvent(RefreshScopeRefreshedEvent event) {
+			this.message = this.context.getBean("qux", ExampleService.class)
+					.getMessage();
+		}
+
+		public String getMessage() {
+			return this.message;
+		}
+
+	}
+
+	@Configuration
+	@Import({ RefreshAutoConfiguration.class, ConfigurationPropertiesAutoConfiguration.class,
+			ConfigurationPropertiesRebinderAutoConfiguration.class,
+			PropertyPlaceholderAutoConfiguration.class })
+	protected static class TestConfiguration {
+
+		@Bean
+		@RefreshScope
+		public ExampleService foo(@Value("${foo.message}") String message) {
+			return new ExampleService(message);
+		}
+
+		@Bean
+		@RefreshScope
+		public ExampleService bar(@Value("${bar.message}") String message) {
+			return new ExampleService(message);
+		}
+
+		@Bean
+		@RefreshScope
+		public TestProperties baz() {
+			return new TestProperties();
+		}
+
+		@Bean
+		public QuxProperties quxProperties() {
+			return new QuxProperties();
+		}
+
+		@Bean
+		@RefreshScope
+		public ExampleService qux(QuxProperties properties) {
+			return new ExampleService(properties.getMessage());
+		}
+
+		@Bean
+		public RefreshListener refreshListener(ApplicationContext context) {
+			return new RefreshListener(context);
+		}
+
+	}
+
+	@ConfigurationProperties("baz")
+	public static class TestProperties {
+
+		private String message;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+	}
+
+	@ConfigurationProperties("qux")
+	public static class QuxProperties {
+
+		private String message;
+
+		public String getMessage() {
+			return this.message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+	}
+
+}
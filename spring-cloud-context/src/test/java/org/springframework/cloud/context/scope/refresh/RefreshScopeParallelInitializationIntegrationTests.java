@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.refresh;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeParallelInitializationIntegrationTests.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+		"spring.cloud.refresh.parallel-initialization=true",
+		"spring.cloud.refresh.initialization-threads=4" })
+public class RefreshScopeParallelInitializationIntegrationTests {
+
+	@Autowired
+	private Recorder recorder;
+
+	@Autowired
+	private org.springframework.cloud.context.scope.refresh.RefreshScope scope;
+
+	@Test
+	public void testIndependentBeansCreatedInParallel() throws Exception {
+		assertThat(this.recorder.getEnded()).containsKeys("one", "two", "three",
+				"dependent");
+		assertThat(this.recorder.getThreads()).hasSize(1);
+		assertThat(this.recorder.getThreads().iterator().next())
+				.startsWith("refresh-scope-init-");
+		// Each bean sleeps, so if they were created one at a time the overlap would be
+		// negative
+		assertThat(this.recorder.getStarted().get("two"))
+				.isLessThan(this.recorder.getEnded().get("one"));
+	}
+
+	@Test
+	public void testDependenciesRespected() throws Exception {
+		assertThat(this.recorder.getStarted().get("dependent"))
+				.isGreaterThanOrEqualTo(this.recorder.getEnded().get("one"));
+	}
+
+	@Test
+	@DirtiesContext
+	public void testBeansCreatedAgainAfterRefresh() throws Exception {
+		this.recorder.reset(4);
+		this.scope.refreshAll();
+		assertThat(this.recorder.await()).isTrue();
+		assertThat(this.recorder.getEnded()).containsKeys("one", "two", "three",
+				"dependent");
+	}
+
+	public static class Recorder {
+
+		private final Map<String, Long> started = new ConcurrentHashMap<>();
+
+		private final Map<String, Long> ended = new ConcurrentHashMap<>();
+
+		private final Set<String> threads = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		private volatile CountDownLatch latch = new CountDownLatch(0);
+
+		public void reset(int count) {
+			this.started.clear();
+			this.ended.clear();
+			this.latch = new CountDownLatch(count);
+		}
+
+		public boolean await() throws InterruptedException {
+			return this.latch.await(5000, TimeUnit.MILLISECONDS);
+		}
+
+		public void create(String name) throws InterruptedException {
+			this.started.put(name, System.nanoTime());
+			this.threads.add(Thread.currentThread().getName().replaceAll("[0-9]+$", ""));
+			Thread.sleep(200L);
+			this.ended.put(name, System.nanoTime());
+			this.latch.countDown();
+		}
+
+		public Map<String, Long> getStarted() {
+			return this.started;
+		}
+
+		public Map<String, Long> getEnded() {
+			return this.ended;
+		}
+
+		public Set<String> getThreads() {
+			return this.threads;
+		}
+
+	}
+
+	public static class ExampleService implements InitializingBean {
+
+		private final Recorder recorder;
+
+		private final String name;
+
+		public ExampleService(Recorder recorder, String name) {
+			this.recorder = recorder;
+			this.name = name;
+		}
+
+		@Override
+		public void afterPropertiesSet() throws Exception {
+			this.recorder.create(this.name);
+		}
+
+	}
+
+	@Configuration
+	@Import({ RefreshAutoConfiguration.class,
+			PropertyPlaceholderAutoConfiguration.class })
+	protected static class TestConfiguration {
+
+		@Bean
+		public Recorder recorder() {
+			return new Recorder();
+		}
+
+		@Bean
+		@RefreshScope
+		public ExampleService one() {
+			return new ExampleService(recorder(), "one");
+		}
+
+		@Bean
+		@RefreshScope
+		public ExampleService two() {
+			return new ExampleService(recorder(), "two");
+		}
+
+		@Bean
+		@RefreshScope
+		public ExampleService three() {
+			return new ExampleService(recorder(), "three");
+		}
+
+		@Bean
+		@RefreshScope
+		@DependsOn("one")
+		public ExampleService dependent() {
+			return new ExampleService(recorder(), "dependent");
+		}
+
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.context.scope.thread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.context.scope.GenericScope;
+import org.springframework.cloud.context.scope.ScopeCache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ThreadScopeTests {
+
+	private static Log logger = LogFactory.getLog(ThreadScopeTests.class);
+
+	private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	private AtomicInteger created = new AtomicInteger();
+
+	private AtomicInteger destroyed = new AtomicInteger();
+
+	private ObjectFactory<Object> factory = new ObjectFactory<Object>() {
+		@Override
+		public Object getObject() {
+			ThreadScopeTests.this.created.incrementAndGet();
+			return new Object();
+		}
+	};
+
+	@After
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void wrappedTaskDestroysItsBeans() throws Exception {
+		final ThreadScope scope = scope();
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			Object first = single.submit(scope.wrap(task(scope))).get();
+			Object second = single.submit(scope.wrap(task(scope))).get();
+			assertThat(first).isNotSameAs(second);
+			assertThat(this.destroyed.get()).isEqualTo(2);
+		}
+		finally {
+			single.shutdownNow();
+		}
+	}
+
+	@Test
+	public void unwrappedTaskLeavesBeansBehind() throws Exception {
+		final ThreadScope scope = scope();
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			Object first = single.submit(task(scope)).get();
+			Object second = single.submit(task(scope)).get();
+			assertThat(first).isSameAs(second);
+			assertThat(this.destroyed.get()).isEqualTo(0);
+		}
+		finally {
+			single.shutdownNow();
+		}
+	}
+
+	@Test
+	public void callerKeepsItsBeansWhenTaskRunsInline() throws Exception {
+		ThreadScope scope = scope();
+		Object mine = scope.get("bean", this.factory);
+		Object task = new ThreadScopeTaskDecorator(scope).decorate(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		((Runnable) task).run();
+		Object other = scope.wrap(task(scope)).call();
+		assertThat(other).isNotSameAs(mine);
+		assertThat(scope.get("bean", this.factory)).isSameAs(mine);
+		assertThat(this.destroyed.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void finishedTaskDoesNotWaitForOtherThreads() throws Exception {
+		ThreadScope scope = new ThreadScope() {
+			{
+				// Another thread is in the middle of a method call on its own instance
+				Lock lock = getLock("bean").readLock();
+				lock.lock();
+			}
+		};
+		scope.postProcessBeanFactory(new DefaultListableBeanFactory());
+		Future<Object> result = this.executor.submit(scope.wrap(task(scope)));
+		assertThat(result.get(5, TimeUnit.SECONDS)).isNotNull();
+		assertThat(this.destroyed.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void wrapRejectedWithOtherCache() throws Exception {
+		ThreadScope scope = scope();
+		scope.setScopeCache(new LegacyThreadLocalScopeCache());
+		ThreadScopeTaskDecorator decorator = new ThreadScopeTaskDecorator(scope);
+		try {
+			decorator.decorate(new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("ThreadLocalScopeCache");
+		}
+		// The beans of the current thread are not touched
+		Object mine = scope.get("bean", this.factory);
+		try {
+			scope.wrap(task(scope));
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+		}
+		assertThat(scope.get("bean", this.factory)).isSameAs(mine);
+		assertThat(this.destroyed.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void highTaskRate() throws Exception {
+		int tasks = 100000;
+		// Warm up
+		run(legacyScope(), tasks / 10, false);
+		run(scope(), tasks / 10, true);
+		this.created.set(0);
+		this.destroyed.set(0);
+		long legacy = run(legacyScope(), tasks, false);
+		int legacyDestroyed = this.destroyed.getAndSet(0);
+		long plain = run(scope(), tasks, false);
+		int plainDestroyed = this.destroyed.getAndSet(0);
+		long wrapped = run(scope(), tasks, true);
+		int wrappedDestroyed = this.destroyed.getAndSet(0);
+		logger.info("Thread scope with " + tasks + " tasks: ConcurrentHashMap per thread="
+				+ legacy + "ms (" + legacyDestroyed + " destroyed), HashMap per thread="
+				+ plain + "ms (" + plainDestroyed + " destroyed), wrapped tasks="
+				+ wrapped + "ms (" + wrappedDestroyed + " destroyed)");
+		assertThat(legacyDestroyed).isEqualTo(0);
+		assertThat(wrappedDestroyed).isEqualTo(tasks);
+	}
+
+	private long run(final GenericScope scope, int tasks, boolean wrap)
+			throws Exception {
+		List<Future<Object>> results = new ArrayList<>(tasks);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < tasks; i++) {
+			Callable<Object> task = task(scope);
+			if (wrap) {
+				task = ((ThreadScope) scope).wrap(task);
+			}
+			results.add(this.executor.submit(task));
+		}
+		for (Future<Object> result : results) {
+			result.get();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private Callable<Object> task(final GenericScope scope) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Object bean = scope.get("bean", ThreadScopeTests.this.factory);
+				scope.registerDestructionCallback("bean", new Runnable() {
+					@Override
+					public void run() {
+						ThreadScopeTests.this.destroyed.incrementAndGet();
+					}
+				});
+				return bean;
+			}
+		};
+	}
+
+	private ThreadScope scope() {
+		ThreadScope scope = new ThreadScope();
+		scope.postProcessBeanFactory(new DefaultListableBeanFactory());
+		return scope;
+	}
+
+	private GenericScope legacyScope() {
+		GenericScope scope = new GenericScope();
+		scope.setName("thread");
+		scope.setScopeCache(new LegacyThreadLocalScopeCache());
+		scope.postProcessBeanFactory(new DefaultListableBeanFactory());
+		return scope;
+	}
+
+	/**
+	 * The way {@link ThreadLocalScopeCache} used to work (a concurrent map per thread,
+	 * never removed), for comparison.
+	 */
+	private static class LegacyThreadLocalScopeCache implements ScopeCache {
+
+		private ThreadLocal<ConcurrentMap<String, Object>> data = new ThreadLocal<ConcurrentMap<String, Object>>() {
+			protected ConcurrentMap<String, Object> initialValue() {
+				return new ConcurrentHashMap<String, Object>();
+			}
+		};
+
+		public Object remove(String name) {
+			return this.data.get().remove(name);
+		}
+
+		public Collection<Object> clear() {
+			ConcurrentMap<String, Object> map = this.data.get();
+			Collection<Object> values = new ArrayList<Object>(map.values());
+			map.clear();
+			return values;
+		}
+
+		public Object get(String name) {
+			return this.data.get().get(name);
+		}
+
+		public Object put(String name, Object value) {
+			Object result = this.data.get().putIfAbsent(name, value);
+			if (result != null) {
+				return result;
+			}
+			return value;
+		}
+
+	}
+
+}
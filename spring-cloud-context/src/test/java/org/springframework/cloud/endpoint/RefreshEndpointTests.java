@@ -18,10 +18,12 @@ package org.springframework.cloud.endpoint;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Test;
@@ -31,6 +33,7 @@ import org.springframework.boot.test.util.EnvironmentTestUtils;
 import org.springframework.cloud.bootstrap.config.PropertySourceLocator;
 import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.cloud.context.refresh.RefreshResult;
 import org.springframework.cloud.context.scope.refresh.RefreshScope;
 import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
 import org.springframework.context.ApplicationEvent;
@@ -107,6 +110,29 @@ public class RefreshEndpointTests {
 		assertTrue("Wrong keys: " + keys, keys.contains("external.message"));
 	}
 
+	@Test
+	public void asyncRefreshReportsTimings() throws Exception {
+		this.context = new SpringApplicationBuilder(Empty.class).web(false)
+				.bannerMode(Mode.OFF).properties("spring.cloud.bootstrap.name:none")
+				.run();
+		RefreshScope scope = new RefreshScope();
+		scope.setApplicationContext(this.context);
+		context.getEnvironment().setActiveProfiles("local");
+		ContextRefresher contextRefresher = new ContextRefresher(this.context, scope);
+		try {
+			RefreshEndpoint endpoint = new RefreshEndpoint(contextRefresher);
+			RefreshResult result = endpoint.refreshAsync().get(10, TimeUnit.SECONDS);
+			assertTrue("Wrong keys: " + result.getKeys(),
+					result.getKeys().contains("added"));
+			assertEquals(Arrays.asList(RefreshResult.RELOAD, RefreshResult.DIFF,
+					RefreshResult.EVENT, RefreshResult.REBIND, RefreshResult.SCOPE),
+					new ArrayList<>(result.getTimings().keySet()));
+		}
+		finally {
+			contextRefresher.destroy();
+		}
+	}
+
 	@Test
 	public void springMainSourcesEmptyInRefreshCycle() throws Exception {
 		this.context = new SpringApplicationBuilder(Empty.class).web(false)
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.endpoint.event;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.springframework.cloud.context.refresh.ContextRefresher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RefreshDispatcherTests {
+
+	private ContextRefresher refresher = Mockito.mock(ContextRefresher.class);
+
+	private RefreshDispatcher dispatcher = new RefreshDispatcher(this.refresher);
+
+	@After
+	public void close() {
+		this.dispatcher.destroy();
+	}
+
+	@Test
+	public void eventsDuringRefreshCoalesced() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Mockito.when(this.refresher.refresh()).thenAnswer(new Answer<Set<String>>() {
+			@Override
+			public Set<String> answer(InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return Collections.emptySet();
+			}
+		});
+		this.dispatcher.dispatch();
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		for (int i = 0; i < 9; i++) {
+			this.dispatcher.dispatch();
+		}
+		release.countDown();
+		awaitExecuted(2);
+		assertThat(this.dispatcher.getCoalescedCount()).isEqualTo(8);
+		Mockito.verify(this.refresher, Mockito.times(2)).refresh();
+	}
+
+	@Test
+	public void burstDebounced() throws Exception {
+		this.dispatcher.setDebounce(200);
+		for (int i = 0; i < 5; i++) {
+			this.dispatcher.dispatch();
+		}
+		awaitExecuted(1);
+		assertThat(this.dispatcher.getCoalescedCount()).isEqualTo(4);
+		Mockito.verify(this.refresher, Mockito.times(1)).refresh();
+	}
+
+	@Test
+	public void failureCounted() throws Exception {
+		Mockito.when(this.refresher.refresh())
+				.thenThrow(new IllegalStateException("Planned"))
+				.thenReturn(Collections.<String>emptySet());
+		this.dispatcher.dispatch();
+		for (int i = 0; i < 100 && this.dispatcher.getFailedCount() == 0; i++) {
+			Thread.sleep(10L);
+		}
+		assertThat(this.dispatcher.getFailedCount()).isEqualTo(1);
+		// Still usable
+		this.dispatcher.dispatch();
+		awaitExecuted(1);
+	}
+
+	private void awaitExecuted(long count) throws InterruptedException {
+		for (int i = 0; i < 500 && this.dispatcher.getExecutedCount() < count; i++) {
+			Thread.sleep(10L);
+		}
+		assertThat(this.dispatcher.getExecutedCount()).isEqualTo(count);
+	}
+
+}
@@ -16,6 +16,7 @@
 package org.springframework.cloud.logging;
 
 import java.util.Collections;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Test;
@@ -26,8 +27,10 @@ import org.springframework.boot.logging.LogLevel;
 import org.springframework.boot.logging.LoggingSystem;
 import org.springframework.boot.test.util.EnvironmentTestUtils;
 import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.env.StandardEnvironment;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -50,9 +53,9 @@ public class LoggingRebinderTests {
 	public void logLevelsChanged() {
 		assertFalse(this.logger.isTraceEnabled());
 		StandardEnvironment environment = new StandardEnvironment();
+		this.rebinder.setEnvironment(environment);
 		EnvironmentTestUtils.addEnvironment(environment,
 				"logging.level.org.springframework.web=TRACE");
-		this.rebinder.setEnvironment(environment);
 		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
 				Collections.singleton("logging.level.org.springframework.web")));
 		assertTrue(this.logger.isTraceEnabled());
@@ -62,12 +65,96 @@ public class LoggingRebinderTests {
 	public void logLevelsLowerCase() {
 		assertFalse(this.logger.isTraceEnabled());
 		StandardEnvironment environment = new StandardEnvironment();
+		this.rebinder.setEnvironment(environment);
 		EnvironmentTestUtils.addEnvironment(environment,
 				"logging.level.org.springframework.web=trace");
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.web")));
+		assertTrue(this.logger.isTraceEnabled());
+	}
+
+	@Test
+	public void nonLoggingKeysIgnored() {
+		StandardEnvironment environment = new StandardEnvironment();
+		EnvironmentTestUtils.addEnvironment(environment,
+				"logging.level.org.springframework.web=TRACE");
+		this.rebinder.setEnvironment(environment);
+		this.rebinder.onApplicationEvent(
+				new EnvironmentChangeEvent(environment, Collections.singleton("foo")));
+		assertFalse(this.logger.isTraceEnabled());
+	}
+
+	@Test
+	public void onlyChangedLevelsApplied() {
+		StandardEnvironment environment = new StandardEnvironment();
+		this.rebinder.setEnvironment(environment);
+		EnvironmentTestUtils.addEnvironment(environment,
+				"logging.level.org.springframework.web=TRACE");
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.web")));
+		assertTrue(this.logger.isTraceEnabled());
+		// Changed by something else (e.g. the loggers endpoint)
+		LoggingSystem.get(getClass().getClassLoader())
+				.setLogLevel("org.springframework.web", LogLevel.DEBUG);
+		EnvironmentTestUtils.addEnvironment(environment,
+				"logging.level.org.springframework.cloud=DEBUG");
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.cloud")));
+		assertFalse(this.logger.isTraceEnabled());
+		assertTrue(this.logger.isDebugEnabled());
+		LoggingSystem.get(getClass().getClassLoader())
+				.setLogLevel("org.springframework.cloud", null);
+	}
+
+	@Test
+	public void removedLevelReset() {
+		StandardEnvironment environment = new StandardEnvironment();
+		Map<String, Object> map = Collections.<String, Object>singletonMap(
+				"logging.level.org.springframework.web", "TRACE");
 		this.rebinder.setEnvironment(environment);
+		environment.getPropertySources().addFirst(new MapPropertySource("test", map));
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.web")));
+		assertTrue(this.logger.isTraceEnabled());
+		environment.getPropertySources().remove("test");
 		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
 				Collections.singleton("logging.level.org.springframework.web")));
+		assertFalse(this.logger.isTraceEnabled());
+		assertTrue(this.logger.isInfoEnabled());
+	}
+
+	@Test
+	public void levelFromStartupNotReappliedAndInheritedWhenRemoved() {
+		LoggingSystem system = LoggingSystem.get(getClass().getClassLoader());
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new MapPropertySource("startup",
+				Collections.<String, Object>singletonMap(
+						"logging.level.org.springframework.web", "DEBUG")));
+		// As on startup
+		system.setLogLevel("org.springframework.web", LogLevel.DEBUG);
+		this.rebinder.setEnvironment(environment);
+		// Changed by something else (e.g. the loggers endpoint)
+		system.setLogLevel("org.springframework.web", LogLevel.TRACE);
+		EnvironmentTestUtils.addEnvironment(environment,
+				"logging.level.org.springframework.cloud=DEBUG");
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.cloud")));
+		// Not re-applied
 		assertTrue(this.logger.isTraceEnabled());
+		environment.getPropertySources().addFirst(new MapPropertySource("warn",
+				Collections.<String, Object>singletonMap(
+						"logging.level.org.springframework.web", "WARN")));
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.web")));
+		assertFalse(this.logger.isInfoEnabled());
+		environment.getPropertySources().remove("warn");
+		environment.getPropertySources().remove("startup");
+		this.rebinder.onApplicationEvent(new EnvironmentChangeEvent(environment,
+				Collections.singleton("logging.level.org.springframework.web")));
+		// Inherited, not back to DEBUG
+		assertThat(system.getLoggerConfiguration("org.springframework.web")
+				.getConfiguredLevel()).isNull();
+		system.setLogLevel("org.springframework.cloud", null);
 	}
 
 }